@@ -0,0 +1,11 @@
+package lol.sylvie.bedframe.geyser;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * The same benchmarks with several threads sending packets at once, like Netty's event loops do
+ */
+@Threads(4)
+public class ContendedMixinHotPathBenchmark extends MixinHotPathBenchmark {
+
+}
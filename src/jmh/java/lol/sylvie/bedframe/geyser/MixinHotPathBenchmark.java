@@ -0,0 +1,134 @@
+package lol.sylvie.bedframe.geyser;
+
+import lol.sylvie.bedframe.BedframeConfig;
+import lol.sylvie.bedframe.util.BedframeMetrics;
+import lol.sylvie.bedframe.util.BenchmarkSessions;
+import lol.sylvie.bedframe.util.GeyserHelper;
+import net.minecraft.Bootstrap;
+import net.minecraft.SharedConstants;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.registry.Registries;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the checks the Polymer mixins call, with the default metrics config, against every vanilla item and block state.
+ * Every other item and every third block state count as translated, which is thousands of each.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MixinHotPathBenchmark {
+    private static final int SIZE = 4096;
+    private static final Object SESSION = new Object();
+
+    /**
+     * none: nobody joined through Geyser, mixed: a quarter of the players are Bedrock players, bedrock: everyone is
+     */
+    @Param({"none", "mixed", "bedrock"})
+    public String players;
+
+    private final BlockState[] states = new BlockState[SIZE];
+    private final Item[] items = new Item[SIZE];
+    private final ItemStack[] stacks = new ItemStack[SIZE];
+    private final BenchmarkSessions.Player[] contexts = new BenchmarkSessions.Player[SIZE];
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int index;
+
+        int next() {
+            return index++ & (SIZE - 1);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        SharedConstants.createGameVersion();
+        Bootstrap.initialize();
+        BedframeMetrics.configure(new BedframeConfig());
+
+        TranslationRegistry.Builder builder = new TranslationRegistry.Builder();
+        List<Item> allItems = Registries.ITEM.stream().toList();
+        for (int i = 0; i < allItems.size(); i += 2) {
+            builder.item(allItems.get(i));
+        }
+
+        List<BlockState> allStates = new ArrayList<>();
+        for (int i = 0; i < Block.STATE_IDS.size(); i++) {
+            allStates.add(Block.STATE_IDS.get(i));
+        }
+        for (int i = 0; i < allStates.size(); i += 3) {
+            builder.blockState(allStates.get(i));
+        }
+        TranslationRegistry.publish(builder.build());
+
+        // Same seed every run, so runs compare
+        Random random = new Random(0);
+        for (int i = 0; i < SIZE; i++) {
+            states[i] = allStates.get(random.nextInt(allStates.size()));
+            items[i] = allItems.get(random.nextInt(allItems.size()));
+            stacks[i] = new ItemStack(items[i]);
+            boolean bedrock = switch (players) {
+                case "mixed" -> random.nextInt(4) == 0;
+                case "bedrock" -> true;
+                default -> false;
+            };
+            contexts[i] = new BenchmarkSessions.Player(bedrock);
+        }
+
+        if (!players.equals("none")) BenchmarkSessions.open(SESSION);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkSessions.close(SESSION);
+    }
+
+    // A chunk goes to one player, so the player changes far less often than the state
+    private BenchmarkSessions.Player player(int index) {
+        return contexts[(index >>> 6) * 31 & (SIZE - 1)];
+    }
+
+    @Benchmark
+    public boolean isBedrockPlayer(Cursor cursor) {
+        return GeyserHelper.isBedrockPlayer(contexts[cursor.next()]);
+    }
+
+    // PolymerBlockUtilsMixin.bedframe$skipTranslatedStates
+    @Benchmark
+    public boolean blockState(Cursor cursor) {
+        int index = cursor.next();
+        return PolymerBypass.sendsRealBlockState(states[index], player(index));
+    }
+
+    // PolymerBlockUtilsMixin.bedframe$tellPolymerToAbstain
+    @Benchmark
+    public boolean blockStateSafely(Cursor cursor) {
+        return PolymerBypass.sendsRealBlockStateSafely(player(cursor.next()));
+    }
+
+    // PolymerItemMixin.bedframe$tellPolymerToAbstain
+    @Benchmark
+    public boolean item(Cursor cursor) {
+        int index = cursor.next();
+        return PolymerBypass.sendsRealItem(items[index], player(index));
+    }
+
+    // PolymerItemUtilsMixin.bedframe$tellPolymerToAbstain
+    @Benchmark
+    public boolean itemStack(Cursor cursor) {
+        int index = cursor.next();
+        return PolymerBypass.sendsRealItemStack(stacks[index].getItem(), player(index));
+    }
+}
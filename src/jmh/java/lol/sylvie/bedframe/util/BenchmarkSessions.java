@@ -0,0 +1,31 @@
+package lol.sylvie.bedframe.util;
+
+/**
+ * Opens Bedrock sessions without Geyser running
+ */
+public class BenchmarkSessions {
+    public static void open(Object session) {
+        GeyserHelper.sessionOpened(session);
+    }
+
+    public static void close(Object session) {
+        GeyserHelper.sessionClosed(session);
+    }
+
+    /**
+     * Stands in for a ServerPlayerEntity, which can't exist without a server
+     */
+    public static class Player implements BedrockPlayerHolder {
+        // Same layout as the field ServerPlayerEntityMixin adds
+        private volatile byte bedrock;
+
+        public Player(boolean bedrock) {
+            this.bedrock = bedrock ? (byte) 2 : (byte) 1;
+        }
+
+        @Override
+        public boolean bedframe$isBedrockPlayer() {
+            return bedrock == 2;
+        }
+    }
+}
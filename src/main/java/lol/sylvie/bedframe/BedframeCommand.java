@@ -0,0 +1,40 @@
+package lol.sylvie.bedframe;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.context.CommandContext;
+import lol.sylvie.bedframe.geyser.TranslationManager;
+import lol.sylvie.bedframe.util.BedframeMetrics;
+import net.minecraft.server.command.CommandManager;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.Text;
+
+import static lol.sylvie.bedframe.util.BedframeConstants.MOD_ID;
+
+public class BedframeCommand {
+    public static void register(CommandDispatcher<ServerCommandSource> dispatcher) {
+        dispatcher.register(CommandManager.literal(MOD_ID)
+                .requires(source -> source.hasPermissionLevel(4))
+                .then(CommandManager.literal("rebuild").executes(BedframeCommand::rebuild))
+                .then(CommandManager.literal("stats").executes(BedframeCommand::stats)));
+    }
+
+    private static int rebuild(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        TranslationManager manager = BedframeInitializer.getTranslationManager();
+        if (manager == null) {
+            source.sendError(Text.literal("Bedframe hasn't started yet"));
+            return 0;
+        }
+
+        source.sendFeedback(() -> Text.literal("Rebuilding the resource pack for new Bedrock sessions..."), true);
+        manager.rebuild().thenAccept(message ->
+                source.getServer().execute(() -> source.sendFeedback(() -> Text.literal(message), true)));
+        return 1;
+    }
+
+    private static int stats(CommandContext<ServerCommandSource> context) {
+        String stats = BedframeMetrics.format();
+        context.getSource().sendFeedback(() -> Text.literal(stats), false);
+        return 1;
+    }
+}
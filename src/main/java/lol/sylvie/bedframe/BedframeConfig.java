@@ -0,0 +1,81 @@
+package lol.sylvie.bedframe;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static lol.sylvie.bedframe.util.BedframeConstants.LOGGER;
+
+public class BedframeConfig {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    // Translates blocks and items on a work-stealing pool instead of a single thread
+    public boolean parallelTranslation = true;
+    // 0 uses every available core
+    public int translationThreads = 0;
+    // Deflate level (0-9) for JSON and other uncompressed files in the pack, images are always stored as is
+    public int compressionLevel = 9;
+    // Losslessly re-encodes textures to make the pack smaller, results are cached so only new textures cost time
+    public boolean optimizeTextures = true;
+    // Generates a pack per mod namespace, so Bedrock players only download the packs of mods that changed
+    public boolean splitPacksByNamespace = false;
+    // Serves packs over HTTP, so Bedrock players download them outside the game connection
+    public boolean hostPacks = false;
+    public String hostAddress = "0.0.0.0";
+    public int hostPort = 25580;
+    // Downloads served at once, any more wait for a free thread
+    public int hostThreads = 4;
+    // Where players (and Geyser itself) reach the host, like "http://play.example.com:25580" or a CDN in front of it
+    public String hostPublicUrl = "";
+    // Warns when the pack report exceeds any of these, 0 disables a budget
+    public long budgetPackBytes = 0;
+    public long budgetTexturePixels = 0;
+    public int budgetBones = 0;
+    public int budgetPermutations = 0;
+    // Fails the build instead of only warning
+    public boolean failOverBudget = false;
+    // Counts calls into the Polymer mixins for /bedframe stats and the metrics export, only while Bedrock players are online
+    public boolean metrics = false;
+    // Also times them, which costs two clock reads per call
+    public boolean metricsTiming = false;
+    // Writes the metrics in Prometheus' text format to this file, empty disables it
+    public String metricsFile = "";
+    public int metricsIntervalSeconds = 15;
+    // Serves the metrics at /metrics on the pack host, needs hostPacks and a token
+    public boolean metricsEndpoint = false;
+    // Scrapers have to send this as "Authorization: Bearer <token>", since the pack host is public
+    public String metricsToken = "";
+
+    public static BedframeConfig load(Path file) {
+        BedframeConfig config = null;
+        if (Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file)) {
+                config = GSON.fromJson(reader, BedframeConfig.class);
+            } catch (IOException | JsonParseException e) {
+                LOGGER.error("Couldn't read config, using defaults", e);
+            }
+        }
+
+        if (config == null) {
+            config = new BedframeConfig();
+        }
+
+        // Writing it back adds any options that are missing from an older file
+        try {
+            Files.createDirectories(file.getParent());
+            try (Writer writer = Files.newBufferedWriter(file)) {
+                GSON.toJson(config, writer);
+            }
+        } catch (IOException e) {
+            LOGGER.error("Couldn't write config", e);
+        }
+
+        return config;
+    }
+}
@@ -2,11 +2,16 @@ package lol.sylvie.bedframe;
 
 import eu.pb4.polymer.resourcepack.api.PolymerResourcePackUtils;
 import lol.sylvie.bedframe.geyser.TranslationManager;
+import lol.sylvie.bedframe.util.BedframeMetrics;
 import lol.sylvie.bedframe.util.ResourceHelper;
 import net.fabricmc.api.ModInitializer;
+import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
+import net.fabricmc.fabric.api.event.Event;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
 import net.fabricmc.loader.api.FabricLoader;
 import net.fabricmc.loader.api.metadata.Person;
+import net.minecraft.util.Identifier;
+import org.jetbrains.annotations.Nullable;
 
 import java.nio.file.Path;
 
@@ -14,17 +19,53 @@ import static lol.sylvie.bedframe.util.BedframeConstants.*;
 
 public class BedframeInitializer implements ModInitializer {
 	public static final Path CONFIG_DIR = FabricLoader.getInstance().getConfigDir().resolve(MOD_ID);
+	public static final BedframeConfig CONFIG = BedframeConfig.load(CONFIG_DIR.resolve("config.json"));
+	private static final Identifier EARLY_PHASE = Identifier.of(MOD_ID, "early");
+	private static volatile @Nullable TranslationManager translationManager;
+
+	public static @Nullable TranslationManager getTranslationManager() {
+		return translationManager;
+	}
 
 	@Override
 	public void onInitialize() {
 		LOGGER.info("Bedframe - {}", METADATA.getVersion().getFriendlyString());
 		LOGGER.info("Contributors: {}", String.join(", ", METADATA.getAuthors().stream().map(Person::getName).toList()));
+		BedframeMetrics.configure(CONFIG);
 
 		PolymerResourcePackUtils.RESOURCE_PACK_AFTER_INITIAL_CREATION_EVENT.register(ResourceHelper::setPolymerResourcePackBuilder);
 
+		// Polymer's assets are all we were waiting on, so generation can overlap world loading
+		PolymerResourcePackUtils.RESOURCE_PACK_FINISHED_EVENT.register(() -> {
+			ResourceHelper.markPolymerResourcePackFinished();
+
+			TranslationManager manager = translationManager;
+			if (manager != null) manager.startGeneration();
+		});
+
 		ServerLifecycleEvents.SERVER_STARTING.register(ignored -> {
 			TranslationManager manager = new TranslationManager();
 			manager.registerHooks();
+			translationManager = manager;
+
+			if (ResourceHelper.isPolymerResourcePackFinished()) manager.startGeneration();
+			BedframeMetrics.startExport(CONFIG);
+		});
+
+		CommandRegistrationCallback.EVENT.register((dispatcher, registryAccess, environment) -> BedframeCommand.register(dispatcher));
+
+		// Polymer didn't build its pack during startup, don't wait on it any longer.
+		// This runs before Geyser's own listeners, since its define events block until the pack is done.
+		ServerLifecycleEvents.SERVER_STARTED.addPhaseOrdering(EARLY_PHASE, Event.DEFAULT_PHASE);
+		ServerLifecycleEvents.SERVER_STARTED.register(EARLY_PHASE, ignored -> {
+			TranslationManager manager = translationManager;
+			if (manager != null) manager.startGeneration();
+		});
+
+		ServerLifecycleEvents.SERVER_STOPPING.register(ignored -> {
+			TranslationManager manager = translationManager;
+			if (manager != null) manager.shutdown();
+			BedframeMetrics.stopExport();
 		});
 	}
 }
\ No newline at end of file
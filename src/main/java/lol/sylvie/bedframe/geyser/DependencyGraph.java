@@ -0,0 +1,194 @@
+package lol.sylvie.bedframe.geyser;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import lol.sylvie.bedframe.util.DependencyTracker;
+import lol.sylvie.bedframe.util.HashHelper;
+import lol.sylvie.bedframe.util.JsonHelper;
+import lol.sylvie.bedframe.util.ResourceHelper;
+import lol.sylvie.bedframe.util.ZipHelper;
+import net.minecraft.util.Identifier;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+import static lol.sylvie.bedframe.util.BedframeConstants.LOGGER;
+import static lol.sylvie.bedframe.util.BedframeConstants.METADATA;
+
+/**
+ * Remembers which assets every translated unit (a block, an item) read and which pack entries it wrote,
+ * so the next build only translates the units whose inputs changed and copies the rest from the previous one
+ */
+public class DependencyGraph {
+    // Bump this whenever the node data or the translators' output for the same inputs changes
+    private static final int FORMAT_VERSION = 3;
+    private static final String MISSING = "missing";
+
+    private final Path graphFile;
+    private final Path entriesFile;
+    private final String key;
+    private final Map<String, Node> previousNodes;
+    private final Map<String, byte[]> previousEntries;
+
+    private final Map<String, Node> nodes = new ConcurrentHashMap<>();
+    // Asset path -> content hash, each asset is only hashed once per build
+    private final Map<String, String> inputHashes = new ConcurrentHashMap<>();
+    private final LongAdder reused = new LongAdder();
+    private final LongAdder translated = new LongAdder();
+
+    private DependencyGraph(Path directory, String key, Map<String, Node> previousNodes, Map<String, byte[]> previousEntries) {
+        this.graphFile = directory.resolve("graph.json");
+        this.entriesFile = directory.resolve("graph-entries.zip");
+        this.key = key;
+        this.previousNodes = previousNodes;
+        this.previousEntries = previousEntries;
+    }
+
+    /**
+     * Loads the graph of the previous build, or starts an empty one if there is none or it was made by another version
+     */
+    public static DependencyGraph load(Path directory) {
+        String key = "graph-" + FORMAT_VERSION + "-" + METADATA.getVersion().getFriendlyString();
+        Path graphFile = directory.resolve("graph.json");
+        Path entriesFile = directory.resolve("graph-entries.zip");
+        if (Files.notExists(graphFile) || Files.notExists(entriesFile)) {
+            return new DependencyGraph(directory, key, Map.of(), Map.of());
+        }
+
+        try (Reader reader = Files.newBufferedReader(graphFile)) {
+            Graph graph = JsonHelper.GSON.fromJson(reader, Graph.class);
+            if (graph == null || !key.equals(graph.key()) || graph.nodes() == null) {
+                return new DependencyGraph(directory, key, Map.of(), Map.of());
+            }
+
+            return new DependencyGraph(directory, key, graph.nodes(), ZipHelper.readEntries(entriesFile));
+        } catch (IOException | JsonParseException e) {
+            LOGGER.warn("Couldn't read the dependency graph, everything will be translated again", e);
+            return new DependencyGraph(directory, key, Map.of(), Map.of());
+        }
+    }
+
+    private String hashInput(String path) {
+        return inputHashes.computeIfAbsent(path, key -> {
+            byte[] data = ResourceHelper.getResourceBytes(key);
+            return data == null ? MISSING : HashHelper.sha256(data);
+        });
+    }
+
+    /**
+     * Copies the outputs of a unit from the previous build into the sink, if neither the unit nor anything it read changed
+     * @param digest describes everything about the unit that isn't an asset, like its states and models
+     * @return the data recorded for the unit, or null if it has to be translated again
+     */
+    public @Nullable JsonElement reuse(String unit, String digest, PackSink sink) {
+        Node node = previousNodes.get(unit);
+        if (node == null || !node.digest().equals(digest)) {
+            return null;
+        }
+
+        for (Map.Entry<String, String> input : node.inputs().entrySet()) {
+            if (!hashInput(input.getKey()).equals(input.getValue())) {
+                return null;
+            }
+        }
+
+        for (String output : node.outputs()) {
+            if (!previousEntries.containsKey(output)) {
+                return null;
+            }
+        }
+
+        for (String output : node.outputs()) {
+            sink.write(output, previousEntries.get(output));
+        }
+
+        nodes.put(unit, node);
+        reused.increment();
+        return node.data();
+    }
+
+    /**
+     * Remembers a freshly translated unit for the next build
+     */
+    public void record(String unit, String digest, DependencyTracker.Dependencies dependencies, JsonElement data) {
+        Map<String, String> inputs = new TreeMap<>();
+        for (String input : dependencies.inputs()) {
+            inputs.put(input, hashInput(input));
+        }
+
+        nodes.put(unit, new Node(digest, inputs, List.copyOf(dependencies.outputs()), data));
+        translated.increment();
+    }
+
+    /**
+     * Writes the graph along with the outputs of every unit.
+     * This has to happen before the pack generator post-processes the sink.
+     */
+    public void save(PackSink sink) {
+        SortedMap<String, byte[]> entries = new TreeMap<>();
+        for (Node node : nodes.values()) {
+            for (String output : node.outputs()) {
+                byte[] data = sink.get(output);
+                if (data != null) {
+                    entries.put(output, data);
+                }
+            }
+        }
+
+        try {
+            ZipHelper.zipEntries(entries, entriesFile, Deflater.BEST_SPEED);
+            Files.createDirectories(graphFile.getParent());
+            try (Writer writer = Files.newBufferedWriter(graphFile)) {
+                JsonHelper.GSON.toJson(new Graph(key, new TreeMap<>(nodes)), writer);
+            }
+        } catch (IOException e) {
+            LOGGER.error("Couldn't write the dependency graph", e);
+        }
+    }
+
+    // Units are named like "block/namespace:path"
+    public static String getNamespace(String unit) {
+        return Identifier.of(unit.substring(unit.indexOf('/') + 1)).getNamespace();
+    }
+
+    /**
+     * Groups the outputs of every unit by the namespace of the block or item it belongs to
+     */
+    public SortedMap<String, SortedSet<String>> getOutputsByNamespace() {
+        SortedMap<String, SortedSet<String>> outputs = new TreeMap<>();
+        nodes.forEach((unit, node) -> outputs.computeIfAbsent(getNamespace(unit), namespace -> new TreeSet<>()).addAll(node.outputs()));
+        return outputs;
+    }
+
+    public SortedMap<String, List<String>> getOutputsByUnit() {
+        SortedMap<String, List<String>> outputs = new TreeMap<>();
+        nodes.forEach((unit, node) -> outputs.put(unit, node.outputs()));
+        return outputs;
+    }
+
+    public void logStats() {
+        long reusedCount = reused.sum();
+        LOGGER.info("Reused {} of {} units from the previous build", reusedCount, reusedCount + translated.sum());
+    }
+
+    record Graph(String key, Map<String, Node> nodes) {
+
+    }
+
+    /**
+     * @param inputs asset path -> content hash, for everything the unit read, including through cached results
+     * @param outputs pack entries the unit wrote
+     * @param data whatever the translator needs to restore the unit without translating it
+     */
+    record Node(String digest, Map<String, String> inputs, List<String> outputs, JsonElement data) {
+
+    }
+}
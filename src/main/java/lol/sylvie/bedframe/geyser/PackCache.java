@@ -0,0 +1,138 @@
+package lol.sylvie.bedframe.geyser;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import lol.sylvie.bedframe.BedframeInitializer;
+import lol.sylvie.bedframe.util.HashHelper;
+import lol.sylvie.bedframe.util.JsonHelper;
+import lol.sylvie.bedframe.util.ResourceHelper;
+import net.fabricmc.loader.api.FabricLoader;
+import net.fabricmc.loader.api.ModContainer;
+import net.fabricmc.loader.api.metadata.ModMetadata;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static lol.sylvie.bedframe.util.BedframeConstants.LOGGER;
+import static lol.sylvie.bedframe.util.BedframeConstants.METADATA;
+
+/**
+ * Keeps the generated pack and registration data between restarts, keyed by a hash of everything that went into them
+ */
+public class PackCache {
+    // Bump this whenever the registration data or pack layout changes
+    private static final int FORMAT_VERSION = 4;
+
+    private final Path metadataFile;
+
+    public PackCache(Path directory) {
+        this.metadataFile = directory.resolve("cache.json");
+    }
+
+    private static String getName(Translator translator) {
+        return translator.getClass().getSimpleName();
+    }
+
+    public String computeKey(List<Translator> translators) {
+        MessageDigest digest = HashHelper.sha256();
+        HashHelper.update(digest, "format-" + FORMAT_VERSION);
+        HashHelper.update(digest, METADATA.getVersion().getFriendlyString());
+        // Options that change the output
+        HashHelper.update(digest, "compression-" + BedframeInitializer.CONFIG.compressionLevel);
+        HashHelper.update(digest, "optimize-textures-" + BedframeInitializer.CONFIG.optimizeTextures);
+        HashHelper.update(digest, "split-packs-" + BedframeInitializer.CONFIG.splitPacksByNamespace);
+
+        // Mods can provide assets straight from their jars, so any version change counts
+        FabricLoader.getInstance().getAllMods().stream()
+                .map(ModContainer::getMetadata)
+                .sorted(Comparator.comparing(ModMetadata::getId))
+                .forEach(mod -> HashHelper.update(digest, mod.getId() + "@" + mod.getVersion().getFriendlyString()));
+
+        ResourceHelper.digestPolymerResources(digest);
+
+        for (Translator translator : translators) {
+            HashHelper.update(digest, getName(translator));
+            translator.digestInputs(digest);
+        }
+
+        return HashHelper.toHex(digest.digest());
+    }
+
+    /**
+     * Restores the registration data of every translator if the packs on disk were built from the same inputs
+     * @return the cache metadata, or null on a miss
+     */
+    public @Nullable Metadata restore(String key, List<Translator> translators) {
+        if (Files.notExists(metadataFile)) {
+            return null;
+        }
+
+        try (Reader reader = Files.newBufferedReader(metadataFile)) {
+            Metadata metadata = JsonHelper.GSON.fromJson(reader, Metadata.class);
+            if (metadata == null || !key.equals(metadata.key()) || metadata.packs() == null) {
+                return null;
+            }
+
+            for (Map.Entry<String, String> pack : metadata.packs().entrySet()) {
+                Path path = Path.of(pack.getKey());
+                if (Files.notExists(path) || !HashHelper.sha256(path).equals(pack.getValue())) {
+                    return null;
+                }
+            }
+
+            for (Translator translator : translators) {
+                JsonElement registrations = metadata.registrations().get(getName(translator));
+                if (registrations == null) {
+                    return null;
+                }
+
+                translator.readRegistrations(registrations);
+            }
+
+            return metadata;
+        } catch (IOException | JsonParseException e) {
+            LOGGER.warn("Couldn't read the pack cache, it will be regenerated", e);
+            return null;
+        }
+    }
+
+    public void save(String key, List<Path> packs, long generationMillis, List<Translator> translators) {
+        Map<String, JsonElement> registrations = new LinkedHashMap<>();
+        for (Translator translator : translators) {
+            registrations.put(getName(translator), translator.writeRegistrations());
+        }
+
+        try {
+            Map<String, String> packHashes = new LinkedHashMap<>();
+            for (Path pack : packs) {
+                packHashes.put(pack.toString(), HashHelper.sha256(pack));
+            }
+
+            Metadata metadata = new Metadata(key, packHashes, generationMillis, registrations);
+            Files.createDirectories(metadataFile.getParent());
+            try (Writer writer = Files.newBufferedWriter(metadataFile)) {
+                JsonHelper.GSON.toJson(metadata, writer);
+            }
+        } catch (IOException e) {
+            LOGGER.error("Couldn't write the pack cache", e);
+        }
+    }
+
+    /**
+     * @param packs path -> content hash of every pack that was written
+     */
+    public record Metadata(String key, Map<String, String> packs, long generationMillis, Map<String, JsonElement> registrations) {
+        public List<Path> packFiles() {
+            return packs.keySet().stream().map(Path::of).toList();
+        }
+    }
+}
@@ -3,19 +3,20 @@ package lol.sylvie.bedframe.geyser;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import lol.sylvie.bedframe.BedframeInitializer;
 import lol.sylvie.bedframe.util.*;
-import net.fabricmc.loader.api.FabricLoader;
-import net.fabricmc.loader.api.Version;
 
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Optional;
-import java.util.UUID;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 import static lol.sylvie.bedframe.util.BedframeConstants.METADATA;
 
@@ -23,43 +24,153 @@ import static lol.sylvie.bedframe.util.BedframeConstants.METADATA;
  * Compiles the output of the {@link Translator} classes into a Bedrock resource pack
  */
 public class PackGenerator {
-    private static JsonArray getVersionArray() {
-        // TODO: A regex would be more inclusive
-        Version version = BedframeConstants.METADATA.getVersion();
-        List<Integer> friendly = Arrays.stream(version.getFriendlyString()
-                        .split("\\."))
-                .map(x -> x.replaceAll("[^0-9]", ""))
-                .map(Integer::valueOf)
-                .toList();
-
-        JsonArray array = new JsonArray(friendly.size());
-        friendly.forEach(array::add);
+    private static final List<String> TEXTURE_ATLASES = List.of("textures/terrain_texture.json", "textures/item_texture.json");
+
+    // Hash of every entry in the pack, the manifest excluded
+    private static byte[] hashContents(PackSink sink) {
+        MessageDigest digest = HashHelper.sha256();
+        sink.getEntries().forEach((path, data) -> {
+            if (path.equals("manifest.json")) return;
+            HashHelper.update(digest, path);
+            digest.update(data);
+        });
+        return digest.digest();
+    }
+
+    private static JsonArray getVersionArray(byte[] contentHash) {
+        // Bedrock only cares that the version is different, so it doesn't need to grow
+        JsonArray array = new JsonArray(3);
+        for (int i = 0; i < 3; i++) {
+            array.add(((contentHash[i * 2] & 0x7F) << 8) | (contentHash[i * 2 + 1] & 0xFF));
+        }
         return array;
     }
 
-    private static void writeJsonToFile(JsonElement object, File file) throws IOException {
-        try (FileWriter writer = new FileWriter(file)) {
-            JsonHelper.GSON.toJson(object, writer);
+    private static boolean isTexture(String path) {
+        return path.startsWith("textures/") && path.endsWith(".png");
+    }
+
+    /**
+     * Replaces every texture with its losslessly optimized version, reusing results from earlier builds
+     */
+    private static void optimizeTextures(PackSink sink) throws IOException {
+        Path cacheDirectory = BedframeInitializer.CONFIG_DIR.resolve("cache").resolve("png-v" + PngOptimizer.VERSION);
+        Files.createDirectories(cacheDirectory);
+
+        List<String> textures = sink.getEntries().keySet().stream().filter(PackGenerator::isTexture).toList();
+        Set<String> usedHashes = ConcurrentHashMap.newKeySet();
+        AtomicLong bytesBefore = new AtomicLong();
+        AtomicLong bytesAfter = new AtomicLong();
+        AtomicLong cacheHits = new AtomicLong();
+
+        ParallelHelper.forEach(textures, path -> {
+            byte[] original = Objects.requireNonNull(sink.get(path));
+            String hash = HashHelper.sha256(original);
+            usedHashes.add(hash);
+            Path cached = cacheDirectory.resolve(hash + ".png");
+
+            byte[] optimized;
+            try {
+                if (Files.exists(cached)) {
+                    optimized = Files.readAllBytes(cached);
+                    cacheHits.incrementAndGet();
+                } else {
+                    optimized = PngOptimizer.optimize(original);
+                    // Identical textures can be optimized at the same time, so write to a unique file first
+                    Path temporary = Files.createTempFile(cacheDirectory, hash, ".tmp");
+                    Files.write(temporary, optimized);
+                    Files.move(temporary, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+            } catch (IOException e) {
+                // Optimizing is optional, so this texture just goes in as it is
+                BedframeConstants.LOGGER.warn("Couldn't optimize {}, using the original", path, e);
+                optimized = original;
+            }
+
+            bytesBefore.addAndGet(original.length);
+            bytesAfter.addAndGet(optimized.length);
+            sink.write(path, optimized);
+        });
+
+        // Textures that aren't in the pack anymore would only pile up
+        try (Stream<Path> files = Files.list(cacheDirectory)) {
+            for (Path file : files.toList()) {
+                // Anything else in here isn't ours to delete
+                String name = file.getFileName().toString();
+                if (name.endsWith(".png") && !usedHashes.contains(name.substring(0, name.length() - ".png".length()))) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            BedframeConstants.LOGGER.warn("Couldn't clean up the texture cache", e);
         }
+
+        BedframeConstants.LOGGER.info("Optimized {} textures ({} cached), {} -> {} bytes",
+                textures.size(), cacheHits.get(), bytesBefore.get(), bytesAfter.get());
     }
 
+    /**
+     * Stores every unique texture once, pointing all texture atlas entries at the shared file
+     */
+    private static void deduplicateTextures(PackSink sink) {
+        // Content hash -> canonical path, the lowest path wins so the result doesn't depend on translation order
+        Map<String, String> canonicalPaths = new HashMap<>();
+        Map<String, String> replacements = new HashMap<>();
+        for (Map.Entry<String, byte[]> entry : sink.getEntries().entrySet()) {
+            String path = entry.getKey();
+            if (!isTexture(path)) continue;
 
-    private static void writeManifestFile(Path directory) throws IOException {
-        // TODO: Maybe generate this based on the mod list? Look into how aggressively Bedrock caches server resource packs
-        // (is it hash based? uuid based? version based?)
-        String versionIdentifier = METADATA.getId() + "-" + METADATA.getVersion().getFriendlyString();
-        boolean shouldRandomize = FabricLoader.getInstance().isDevelopmentEnvironment();
+            String canonical = canonicalPaths.putIfAbsent(HashHelper.sha256(entry.getValue()), path);
+            if (canonical != null) {
+                replacements.put(path, canonical);
+            }
+        }
+
+        if (replacements.isEmpty()) {
+            return;
+        }
+
+        long savedBytes = 0;
+        for (String duplicate : replacements.keySet()) {
+            savedBytes += Objects.requireNonNull(sink.get(duplicate)).length;
+            sink.remove(duplicate);
+        }
+
+        for (String atlas : TEXTURE_ATLASES) {
+            byte[] data = sink.get(atlas);
+            if (data == null) continue;
+
+            JsonObject atlasObject = JsonParser.parseString(new String(data, StandardCharsets.UTF_8)).getAsJsonObject();
+            for (Map.Entry<String, JsonElement> texture : atlasObject.getAsJsonObject("texture_data").entrySet()) {
+                JsonObject textureObject = texture.getValue().getAsJsonObject();
+                String canonical = replacements.get(textureObject.get("textures").getAsString() + ".png");
+                if (canonical != null) {
+                    textureObject.addProperty("textures", canonical.substring(0, canonical.length() - ".png".length()));
+                }
+            }
+            sink.writeJson(atlas, atlasObject);
+        }
+
+        BedframeConstants.LOGGER.info("Deduplicated {} textures, saving {} bytes", replacements.size(), savedBytes);
+    }
+
+    /**
+     * Clients cache packs by UUID and version, so both are derived from the contents of the pack.
+     * Has to be written last, once nothing else changes.
+     */
+    private static void writeManifestFile(PackSink sink, String name) {
+        byte[] contentHash = hashContents(sink);
+        String contentId = HashHelper.toHex(contentHash);
 
         // Manifest
-        File manifestFile = directory.resolve("manifest.json").toFile();
         JsonObject manifestObject = new JsonObject();
         manifestObject.addProperty("format_version", 2);
-        JsonArray version = getVersionArray();
+        JsonArray version = getVersionArray(contentHash);
         // Header
         JsonObject header = new JsonObject();
         header.addProperty("description", METADATA.getDescription());
-        header.addProperty("name", METADATA.getId());
-        header.addProperty("uuid", (shouldRandomize ? UUID.randomUUID() : UUID.fromString(versionIdentifier)).toString());
+        header.addProperty("name", name);
+        header.addProperty("uuid", UUID.nameUUIDFromBytes((contentId + "-header").getBytes(StandardCharsets.UTF_8)).toString());
         header.add("version", version);
 
         JsonArray engineVersion = new JsonArray();
@@ -73,21 +184,51 @@ public class PackGenerator {
         JsonObject module = new JsonObject();
         module.addProperty("description", METADATA.getName() + " Resources");
         module.addProperty("type", "resources");
-        module.addProperty("uuid", (shouldRandomize ? UUID.randomUUID() : UUID.fromString(versionIdentifier + "-resources")).toString());
+        module.addProperty("uuid", UUID.nameUUIDFromBytes((contentId + "-resources").getBytes(StandardCharsets.UTF_8)).toString());
         module.add("version", version);
 
         modules.add(module);
         manifestObject.add("modules", modules);
 
-        writeJsonToFile(manifestObject, manifestFile);
+        sink.writeJson("manifest.json", manifestObject);
+    }
+
+    // Keeps only the atlas entries whose textures are in the pack
+    private static void copyAtlas(PackSink source, PackSink destination, String atlas) {
+        byte[] data = source.get(atlas);
+        if (data == null) return;
+
+        JsonObject atlasObject = JsonParser.parseString(new String(data, StandardCharsets.UTF_8)).getAsJsonObject();
+        JsonObject textureData = new JsonObject();
+        for (Map.Entry<String, JsonElement> texture : atlasObject.getAsJsonObject("texture_data").entrySet()) {
+            String texturePath = texture.getValue().getAsJsonObject().get("textures").getAsString();
+            if (destination.contains(texturePath + ".png")) {
+                textureData.add(texture.getKey(), texture.getValue());
+            }
+        }
+
+        if (textureData.isEmpty()) return;
+        atlasObject.add("texture_data", textureData);
+        destination.writeJson(atlas, atlasObject);
     }
 
-    public void generatePack(Path packPath, File outputFile, List<Translator> translators) throws IOException {
-        writeManifestFile(packPath);
+    // Everything that has to happen once the contents of a pack are final
+    private static void finishPack(PackSink sink, String name) {
+        deduplicateTextures(sink);
 
-        Path textsDir = packPath.resolve("texts");
-        PathHelper.createDirectoryOrThrow(textsDir);
+        Optional<String> icon = METADATA.getIconPath(512);
+        sink.write("pack_icon.png", Objects.requireNonNull(ResourceHelper.getResourceBytes(icon.orElseThrow())));
 
+        writeManifestFile(sink, name);
+    }
+
+    /**
+     * Writes the resource pack, or one pack per namespace if {@code splitPacksByNamespace} is enabled,
+     * so that an update to one mod only invalidates the download of that mod's pack
+     * @param outputFile the pack, split packs go into a directory next to it instead
+     * @return every pack that was written
+     */
+    public List<Path> generatePack(PackSink sink, DependencyGraph graph, Path outputFile, List<Translator> translators, PhaseTimings timings) throws IOException {
         // TODO: I'm not sure if translations are even necessary
         /*JsonArray languages = new JsonArray();
 
@@ -108,9 +249,90 @@ public class PackGenerator {
         });
         writeJsonToFile(languages, textsDir.resolve("languages.json").toFile());*/
 
-        Optional<String> icon = METADATA.getIconPath(512);
-        Files.copy(ResourceHelper.getResource(icon.orElseThrow()), packPath.resolve("pack_icon.png"));
+        // Differently encoded copies of the same image only become identical once optimized
+        if (BedframeInitializer.CONFIG.optimizeTextures) {
+            try (PhaseTimings.Phase ignored = timings.start("optimize textures")) {
+                optimizeTextures(sink);
+            }
+        }
+
+        String fileName = outputFile.getFileName().toString();
+        int extension = fileName.lastIndexOf('.');
+        String baseName = extension == -1 ? fileName : fileName.substring(0, extension);
+        Path splitDirectory = outputFile.resolveSibling(baseName + "-packs");
+
+        // Every pack is finished and zipped in memory first, so the report sees exactly what clients download
+        Map<Path, PackSink> packSinks;
+        Map<Path, byte[]> zippedPacks = new LinkedHashMap<>();
+        try (PhaseTimings.Phase ignored = timings.start("zip packs")) {
+            if (BedframeInitializer.CONFIG.splitPacksByNamespace) {
+                packSinks = buildNamespacePacks(sink, graph, splitDirectory);
+            } else {
+                finishPack(sink, METADATA.getId());
+                packSinks = Map.of(outputFile, sink);
+            }
+
+            for (Map.Entry<Path, PackSink> pack : packSinks.entrySet()) {
+                zippedPacks.put(pack.getKey(), ZipHelper.zipEntries(pack.getValue().getEntries(), BedframeInitializer.CONFIG.compressionLevel));
+            }
+        }
+
+        PackReport report = new PackReport();
+        try (PhaseTimings.Phase ignored = timings.start("report")) {
+            report.addFiles(packSinks.values(), graph.getOutputsByUnit());
+            translators.forEach(translator -> translator.report(report));
+            zippedPacks.forEach((pack, data) -> report.addPack(pack, data.length));
+        }
+        List<String> exceeded = report.summarize(BedframeInitializer.CONFIG);
+        report.write(outputFile.resolveSibling(baseName + "-report.json"));
+
+        // Checked before any pack is written, so a failed build leaves nothing behind
+        if (!exceeded.isEmpty()) {
+            String message = "The resource pack is over budget: " + String.join(", ", exceeded);
+            if (BedframeInitializer.CONFIG.failOverBudget) {
+                throw new IOException(message);
+            }
+            BedframeConstants.LOGGER.warn(message);
+        }
+
+        try (PhaseTimings.Phase ignored = timings.start("write packs")) {
+            // Namespaces that are gone shouldn't keep their packs
+            if (BedframeInitializer.CONFIG.splitPacksByNamespace && Files.exists(splitDirectory)) {
+                try (Stream<Path> files = Files.list(splitDirectory)) {
+                    for (Path file : files.toList()) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+
+            for (Map.Entry<Path, byte[]> pack : zippedPacks.entrySet()) {
+                ZipHelper.write(pack.getKey(), pack.getValue());
+            }
+        }
+
+        return List.copyOf(zippedPacks.keySet());
+    }
+
+    // Files shared between namespaces end up in each of their packs
+    private static Map<Path, PackSink> buildNamespacePacks(PackSink sink, DependencyGraph graph, Path directory) {
+        Map<Path, PackSink> packs = new LinkedHashMap<>();
+        for (Map.Entry<String, SortedSet<String>> namespace : graph.getOutputsByNamespace().entrySet()) {
+            PackSink subPack = new PackSink();
+            for (String path : namespace.getValue()) {
+                byte[] data = sink.get(path);
+                if (data != null) subPack.write(path, data);
+            }
+            if (subPack.getEntries().isEmpty()) continue;
+
+            for (String atlas : TEXTURE_ATLASES) {
+                copyAtlas(sink, subPack, atlas);
+            }
+
+            finishPack(subPack, METADATA.getId() + "-" + namespace.getKey());
+            packs.put(directory.resolve(namespace.getKey() + ".zip"), subPack);
+        }
 
-        ZipHelper.zipFolder(packPath, outputFile);
+        BedframeConstants.LOGGER.info("Split the resource pack into {} namespace packs", packs.size());
+        return packs;
     }
 }
@@ -0,0 +1,224 @@
+package lol.sylvie.bedframe.geyser;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lol.sylvie.bedframe.BedframeInitializer;
+import lol.sylvie.bedframe.util.BedframeMetrics;
+import lol.sylvie.bedframe.util.HashHelper;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static lol.sylvie.bedframe.util.BedframeConstants.LOGGER;
+
+/**
+ * Serves packs over HTTP under URLs derived from their contents, so Bedrock clients download them
+ * outside the game connection and anything in front of this (like a CDN) can cache them forever
+ */
+public class PackHttpServer {
+    private static final String PREFIX = "/packs/";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String publicUrl;
+    // Content hash -> pack file
+    private final Map<String, Path> packs = new ConcurrentHashMap<>();
+
+    public PackHttpServer(String address, int port, String publicUrl, int threads) throws IOException {
+        this.publicUrl = publicUrl.endsWith("/") ? publicUrl.substring(0, publicUrl.length() - 1) : publicUrl;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        // Bounded, since anyone on the internet can open connections
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "Bedframe Pack Host #" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        server.createContext(PREFIX, this::handle);
+        if (BedframeInitializer.CONFIG.metricsEndpoint) {
+            if (BedframeInitializer.CONFIG.metricsToken.isBlank()) {
+                LOGGER.warn("metricsEndpoint is enabled, but metricsToken isn't set, not serving metrics");
+            } else {
+                server.createContext("/metrics", this::handleMetrics);
+            }
+        }
+        server.setExecutor(executor);
+        server.start();
+        LOGGER.info("Hosting resource packs on {}:{}", address, port);
+    }
+
+    /**
+     * Makes the pack downloadable, the file must not change while it is hosted
+     * @return the URL clients download the pack from
+     */
+    public String host(Path pack) throws IOException {
+        String hash = HashHelper.sha256(pack);
+        packs.put(hash, pack);
+        return publicUrl + PREFIX + hash + ".zip";
+    }
+
+    // Clients that already have the URL get a 404 from now on
+    public void unhost(Path pack) {
+        packs.values().removeIf(pack::equals);
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            String name = exchange.getRequestURI().getPath().substring(PREFIX.length());
+            Path pack = name.endsWith(".zip") ? packs.get(name.substring(0, name.length() - ".zip".length())) : null;
+            if (pack == null || Files.notExists(pack)) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            String etag = "\"" + name.substring(0, name.length() - ".zip".length()) + "\"";
+            long length = Files.size(pack);
+            Headers requestHeaders = exchange.getRequestHeaders();
+            Headers responseHeaders = exchange.getResponseHeaders();
+            responseHeaders.set("ETag", etag);
+            responseHeaders.set("Accept-Ranges", "bytes");
+            responseHeaders.set("Content-Type", "application/zip");
+            // The URL changes with the content, so it never has to be revalidated
+            responseHeaders.set("Cache-Control", "public, max-age=31536000, immutable");
+
+            String ifNoneMatch = requestHeaders.getFirst("If-None-Match");
+            if (ifNoneMatch != null && (ifNoneMatch.contains(etag) || ifNoneMatch.trim().equals("*"))) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+
+            long start = 0;
+            long end = length - 1;
+            int status = 200;
+            String range = requestHeaders.getFirst("Range");
+            String ifRange = requestHeaders.getFirst("If-Range");
+            if (range != null && (ifRange == null || ifRange.equals(etag))) {
+                long[] bounds = parseRange(range, length);
+                if (bounds == null) {
+                    responseHeaders.set("Content-Range", "bytes */" + length);
+                    exchange.sendResponseHeaders(416, -1);
+                    return;
+                }
+
+                if (bounds.length == 2) {
+                    start = bounds[0];
+                    end = bounds[1];
+                    status = 206;
+                    responseHeaders.set("Content-Range", "bytes " + start + "-" + end + "/" + length);
+                }
+            }
+
+            long count = end - start + 1;
+            if (method.equals("HEAD")) {
+                responseHeaders.set("Content-Length", String.valueOf(count));
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+
+            exchange.sendResponseHeaders(status, count);
+            try (InputStream input = Files.newInputStream(pack); OutputStream output = exchange.getResponseBody()) {
+                input.skipNBytes(start);
+                byte[] buffer = new byte[64 * 1024];
+                long remaining = count;
+                while (remaining > 0) {
+                    int read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read == -1) break;
+                    output.write(buffer, 0, read);
+                    remaining -= read;
+                }
+                BedframeMetrics.packServed(count - remaining);
+            }
+        } catch (IOException e) {
+            // Mostly clients that went away mid-download
+            LOGGER.debug("Couldn't serve a resource pack", e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            // Compared in constant time, so the token can't be guessed from how long a rejection takes
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            byte[] expected = ("Bearer " + BedframeInitializer.CONFIG.metricsToken).getBytes(StandardCharsets.UTF_8);
+            if (authorization == null || !MessageDigest.isEqual(expected, authorization.getBytes(StandardCharsets.UTF_8))) {
+                exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+                exchange.sendResponseHeaders(401, -1);
+                return;
+            }
+
+            byte[] body = BedframeMetrics.formatPrometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Parses a single byte range, several ranges aren't worth supporting for one file
+     * @return the inclusive bounds, an empty array to send the whole file, or null if the range can't be satisfied
+     */
+    private static @Nullable long[] parseRange(String header, long length) {
+        if (!header.startsWith("bytes=") || header.contains(",")) {
+            return new long[0];
+        }
+
+        String[] parts = header.substring("bytes=".length()).trim().split("-", 2);
+        if (parts.length != 2) {
+            return new long[0];
+        }
+
+        try {
+            long start;
+            long end;
+            if (parts[0].isEmpty()) {
+                // The last n bytes
+                long suffix = Long.parseLong(parts[1]);
+                if (suffix <= 0) return null;
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(parts[0]);
+                end = parts[1].isEmpty() ? length - 1 : Math.min(Long.parseLong(parts[1]), length - 1);
+            }
+
+            if (start >= length || start > end) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package lol.sylvie.bedframe.geyser;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import lol.sylvie.bedframe.BedframeConfig;
+import lol.sylvie.bedframe.util.PngHelper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static lol.sylvie.bedframe.util.BedframeConstants.LOGGER;
+
+/**
+ * Breaks down what the pack costs to download and for Bedrock clients to load, per unit and per namespace
+ */
+public class PackReport {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    private final Map<String, Cost> units = new TreeMap<>();
+    private final Map<String, Cost> namespaces = new TreeMap<>();
+    private final Cost total = new Cost();
+    private final Map<String, Long> packBytes = new TreeMap<>();
+    // Costs of single files, shared files are counted once for every unit that uses them
+    private final Map<String, Cost> fileCosts = new HashMap<>();
+    // The contents each cost was computed from, so the totals only reuse it for the exact same file
+    private final Map<String, byte[]> costedData = new HashMap<>();
+
+    public Cost getUnit(String unit) {
+        return units.computeIfAbsent(unit, key -> new Cost());
+    }
+
+    private Cost getFileCost(String path, byte[] data) {
+        return fileCosts.computeIfAbsent(path, key -> {
+            costedData.put(path, data);
+            return computeFileCost(path, data);
+        });
+    }
+
+    private static Cost computeFileCost(String path, byte[] data) {
+        Cost cost = new Cost();
+        cost.bytes = data.length;
+        if (path.endsWith(".png")) {
+            cost.textures = 1;
+            try {
+                PngHelper.Header header = PngHelper.readHeader(new ByteArrayInputStream(data));
+                if (header != null) cost.pixels = (long) header.width() * header.height();
+            } catch (IOException ignored) {
+                // Not a PNG after all, only the bytes count
+            }
+        } else if (path.endsWith(".geo.json")) {
+            JsonElement element = JsonParser.parseString(new String(data, StandardCharsets.UTF_8));
+            for (JsonElement geometry : element.getAsJsonObject().getAsJsonArray("minecraft:geometry")) {
+                cost.geometries++;
+                JsonObject geometryObject = geometry.getAsJsonObject();
+                if (!geometryObject.has("bones")) continue;
+                for (JsonElement bone : geometryObject.getAsJsonArray("bones")) {
+                    cost.bones++;
+                    JsonObject boneObject = bone.getAsJsonObject();
+                    if (boneObject.has("cubes")) cost.cubes += boneObject.getAsJsonArray("cubes").size();
+                }
+            }
+        }
+        return cost;
+    }
+
+    /**
+     * Counts the files every unit wrote, along with the namespace and pack totals
+     * @param packs the final contents of every pack, files shared between packs count for each of them in the total
+     */
+    public void addFiles(Collection<PackSink> packs, Map<String, List<String>> outputsByUnit) {
+        Map<String, Set<String>> filesByNamespace = new TreeMap<>();
+        outputsByUnit.forEach((unit, outputs) -> {
+            Cost cost = getUnit(unit);
+            for (String output : outputs) {
+                byte[] data = packs.stream().map(pack -> pack.get(output)).filter(Objects::nonNull).findFirst().orElse(null);
+                if (data == null) continue;
+                cost.add(getFileCost(output, data));
+                filesByNamespace.computeIfAbsent(DependencyGraph.getNamespace(unit), key -> new TreeSet<>()).add(output);
+            }
+        });
+
+        filesByNamespace.forEach((namespace, files) -> {
+            Cost cost = namespaces.computeIfAbsent(namespace, key -> new Cost());
+            for (String file : files) {
+                cost.add(fileCosts.get(file));
+            }
+        });
+
+        // What clients download, manifests and atlases differ between packs so only identical files reuse their cost
+        for (PackSink pack : packs) {
+            pack.getEntries().forEach((path, data) -> total.add(costedData.get(path) == data ? fileCosts.get(path) : computeFileCost(path, data)));
+        }
+    }
+
+    public void addPack(Path pack, long zippedBytes) {
+        packBytes.put(pack.getFileName().toString(), zippedBytes);
+    }
+
+    private void finish() {
+        // Registration costs aren't files, so they only add up through the units
+        units.forEach((unit, cost) -> {
+            Cost namespace = namespaces.computeIfAbsent(DependencyGraph.getNamespace(unit), key -> new Cost());
+            namespace.permutations += cost.permutations;
+            namespace.conditionLength += cost.conditionLength;
+            namespace.materialInstances += cost.materialInstances;
+            namespace.javaStates += cost.javaStates;
+            namespace.bedrockStates += cost.bedrockStates;
+            total.permutations += cost.permutations;
+            total.conditionLength += cost.conditionLength;
+            total.materialInstances += cost.materialInstances;
+            total.javaStates += cost.javaStates;
+            total.bedrockStates += cost.bedrockStates;
+        });
+    }
+
+    public void write(Path file) throws IOException {
+        JsonObject report = new JsonObject();
+        report.add("total", GSON.toJsonTree(total));
+        report.add("packs", GSON.toJsonTree(packBytes));
+        report.add("namespaces", GSON.toJsonTree(namespaces));
+        report.add("units", GSON.toJsonTree(units));
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (Writer writer = Files.newBufferedWriter(file)) {
+            GSON.toJson(report, writer);
+        }
+    }
+
+    /**
+     * Logs the totals and the biggest units, then checks the budgets from the config
+     * @return the budgets that were exceeded
+     */
+    public List<String> summarize(BedframeConfig config) {
+        finish();
+
+        long zippedBytes = packBytes.values().stream().mapToLong(Long::longValue).sum();
+        LOGGER.info("Pack report: {} bytes zipped ({} uncompressed), {} textures with {} pixels, {} geometries with {} bones and {} cubes, {} permutations ({} condition characters), {} material instances, {} Bedrock states for {} Java states",
+                zippedBytes, total.bytes, total.textures, total.pixels, total.geometries, total.bones, total.cubes,
+                total.permutations, total.conditionLength, total.materialInstances, total.bedrockStates, total.javaStates);
+
+        units.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, Cost> entry) -> entry.getValue().bytes).reversed())
+                .limit(5)
+                .forEach(entry -> LOGGER.info("  {}: {} bytes, {} permutations", entry.getKey(), entry.getValue().bytes, entry.getValue().permutations));
+
+        List<String> exceeded = new ArrayList<>();
+        checkBudget(exceeded, "pack bytes", zippedBytes, config.budgetPackBytes);
+        checkBudget(exceeded, "texture pixels", total.pixels, config.budgetTexturePixels);
+        checkBudget(exceeded, "bones", total.bones, config.budgetBones);
+        checkBudget(exceeded, "permutations", total.permutations, config.budgetPermutations);
+        return exceeded;
+    }
+
+    // Budgets of 0 are disabled
+    private static void checkBudget(List<String> exceeded, String name, long value, long budget) {
+        if (budget > 0 && value > budget) {
+            exceeded.add(name + " (" + value + " > " + budget + ")");
+        }
+    }
+
+    public static class Cost {
+        public long bytes;
+        public int textures;
+        public long pixels;
+        public int geometries;
+        public int bones;
+        public int cubes;
+        public int permutations;
+        public long conditionLength;
+        public int materialInstances;
+        // Java states of the registered blocks, and the Bedrock states they are collapsed into
+        public int javaStates;
+        public int bedrockStates;
+
+        private void add(Cost other) {
+            bytes += other.bytes;
+            textures += other.textures;
+            pixels += other.pixels;
+            geometries += other.geometries;
+            bones += other.bones;
+            cubes += other.cubes;
+        }
+    }
+}
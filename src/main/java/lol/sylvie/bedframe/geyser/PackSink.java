@@ -0,0 +1,53 @@
+package lol.sylvie.bedframe.geyser;
+
+import com.google.gson.JsonElement;
+import lol.sylvie.bedframe.util.DependencyTracker;
+import lol.sylvie.bedframe.util.JsonHelper;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+/**
+ * Collects the files of the resource pack in memory, so that they only touch the disk once, as the final archive
+ */
+public class PackSink {
+    private final ConcurrentSkipListMap<String, byte[]> entries = new ConcurrentSkipListMap<>();
+
+    public void write(String path, byte[] data) {
+        DependencyTracker.addOutput(path);
+        entries.put(path, data);
+    }
+
+    // The generator only runs if nothing has been written to the path yet
+    public void write(String path, Supplier<byte[]> generator) {
+        DependencyTracker.addOutput(path);
+        if (!entries.containsKey(path)) {
+            entries.putIfAbsent(path, generator.get());
+        }
+    }
+
+    public void writeJson(String path, JsonElement element) {
+        write(path, JsonHelper.GSON.toJson(element).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void remove(String path) {
+        entries.remove(path);
+    }
+
+    public boolean contains(String path) {
+        return entries.containsKey(path);
+    }
+
+    public @Nullable byte[] get(String path) {
+        return entries.get(path);
+    }
+
+    // Sorted by path
+    public SortedMap<String, byte[]> getEntries() {
+        return Collections.unmodifiableSortedMap(entries);
+    }
+}
@@ -0,0 +1,47 @@
+package lol.sylvie.bedframe.geyser;
+
+import lol.sylvie.bedframe.util.BedframeMetrics;
+import lol.sylvie.bedframe.util.BedrockPlayerHolder;
+import lol.sylvie.bedframe.util.GeyserHelper;
+import net.minecraft.block.BlockState;
+import net.minecraft.item.Item;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The checks behind the Polymer mixins, which decide whether a player gets the real block or item instead of Polymer's.
+ * They run for every block state and item sent to anyone, and live here so the benchmarks measure the same code.
+ * Every ServerPlayerEntity is a BedrockPlayerHolder through ServerPlayerEntityMixin, benchmarks pass a stand-in instead.
+ */
+public class PolymerBypass {
+    // getPolymerBlockState, for every state in chunk sections and block updates
+    public static boolean sendsRealBlockState(BlockState state, @Nullable BedrockPlayerHolder player) {
+        long start = BedframeMetrics.BLOCK_STATE.start();
+        boolean real = GeyserHelper.isBedrockPlayer(player) && TranslationRegistry.get().isTranslatedBlockState(state);
+        BedframeMetrics.BLOCK_STATE.end(start, real);
+        return real;
+    }
+
+    // getBlockStateSafely, only reached for Polymer blocks
+    public static boolean sendsRealBlockStateSafely(@Nullable BedrockPlayerHolder player) {
+        long start = BedframeMetrics.BLOCK_STATE_SAFELY.start();
+        boolean real = GeyserHelper.isBedrockPlayer(player);
+        BedframeMetrics.BLOCK_STATE_SAFELY.end(start, real);
+        return real;
+    }
+
+    // PolymerItem.getPolymerReplacement
+    public static boolean sendsRealItem(Item item, @Nullable BedrockPlayerHolder player) {
+        long start = BedframeMetrics.ITEM.start();
+        boolean real = TranslationRegistry.get().isTranslatedItem(item) && GeyserHelper.isBedrockPlayer(player);
+        BedframeMetrics.ITEM.end(start, real);
+        return real;
+    }
+
+    // PolymerItemUtils.getItemSafely, for every item stack
+    public static boolean sendsRealItemStack(Item item, @Nullable BedrockPlayerHolder player) {
+        long start = BedframeMetrics.ITEM_STACK.start();
+        boolean real = TranslationRegistry.get().isTranslatedItem(item) && GeyserHelper.isBedrockPlayer(player);
+        BedframeMetrics.ITEM_STACK.end(start, real);
+        return real;
+    }
+}
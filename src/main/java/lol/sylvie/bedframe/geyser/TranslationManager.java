@@ -1,66 +1,364 @@
 package lol.sylvie.bedframe.geyser;
 
+import com.google.gson.JsonElement;
+import lol.sylvie.bedframe.BedframeConfig;
 import lol.sylvie.bedframe.BedframeInitializer;
 import lol.sylvie.bedframe.geyser.translator.BlockTranslator;
 import lol.sylvie.bedframe.geyser.translator.ItemTranslator;
 import lol.sylvie.bedframe.util.BedframeConstants;
+import lol.sylvie.bedframe.util.BedframeMetrics;
+import lol.sylvie.bedframe.util.GeyserHelper;
+import lol.sylvie.bedframe.util.PhaseTimings;
+import lol.sylvie.bedframe.util.ResourceHelper;
 import org.geysermc.geyser.api.GeyserApi;
 import org.geysermc.geyser.api.event.EventBus;
 import org.geysermc.geyser.api.event.EventRegistrar;
+import org.geysermc.geyser.api.event.bedrock.SessionLoadResourcePacksEvent;
 import org.geysermc.geyser.api.event.lifecycle.GeyserDefineResourcePacksEvent;
 import org.geysermc.geyser.api.pack.PackCodec;
 import org.geysermc.geyser.api.pack.ResourcePack;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
 public class TranslationManager implements EventRegistrar {
     private static final PackGenerator packGenerator = new PackGenerator();
-    private boolean generatedResources = false;
+    // How many of the slowest blocks, items and models are logged after a build
+    private static final int SUMMARY_COUNT = 10;
+    private final Path cacheDirectory = BedframeInitializer.CONFIG_DIR.resolve("cache");
+    private final PackCache packCache = new PackCache(cacheDirectory);
+    private final Path resourcePack = BedframeInitializer.CONFIG_DIR.resolve("bedframe.zip");
+    private final Path rebuildDirectory = BedframeInitializer.CONFIG_DIR.resolve("rebuilds");
+    // Completed by the generation startGeneration kicks off, Geyser's events only ever wait on it
+    private final CompletableFuture<Boolean> resources = new CompletableFuture<>();
+    private final AtomicBoolean generationStarted = new AtomicBoolean();
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private final List<Translator> translators;
 
-    public TranslationManager() {}
+    private volatile List<Path> packFiles = List.of();
+    private volatile PhaseTimings lastTimings = new PhaseTimings();
+    private @Nullable PackHttpServer httpServer;
 
-    public void registerHooks() {
-        List<Translator> translators = List.of(
+    // The packs Geyser was given at startup, and the ones that replace them for new sessions after a rebuild
+    private volatile List<ResourcePack> registeredPacks = List.of();
+    private volatile List<ResourcePack> rebuiltPacks = List.of();
+    // Only touched by the rebuild thread, and only one rebuild runs at a time
+    private @Nullable String rebuildName;
+    private List<Path> rebuiltFiles = List.of();
+
+    public TranslationManager() {
+        translators = List.of(
                 new BlockTranslator(),
                 new ItemTranslator()
         );
+    }
+
+    /**
+     * Starts generating the resource pack in the background, if it hasn't been started already.
+     * Registries need to be frozen by the time this is called.
+     * @return a future that completes with whether the resources are usable
+     */
+    public CompletableFuture<Boolean> startGeneration() {
+        if (!generationStarted.compareAndSet(false, true)) {
+            return resources;
+        }
+
+        Thread thread = new Thread(() -> {
+            try {
+                resources.complete(generateResources());
+            } catch (Throwable e) {
+                BedframeConstants.LOGGER.error("Couldn't generate resource pack", e);
+                resources.complete(false);
+            }
+        }, "Bedframe Pack Generator");
+        thread.setDaemon(true);
+        // Mod assets outside of Polymer's builder are loaded through the context class loader
+        thread.setContextClassLoader(Thread.currentThread().getContextClassLoader());
+        thread.start();
+        return resources;
+    }
+
+    // Geyser events block here until the pack is done, which ideally it already is.
+    // Generation is only started by BedframeInitializer, once Polymer's pack is complete or the server has started.
+    private boolean awaitResources() {
+        return resources.join();
+    }
+
+    private boolean generateResources() throws IOException {
+        long start = System.currentTimeMillis();
+        PhaseTimings timings = PhaseTimings.begin();
+        lastTimings = timings;
+        clearRebuilds();
+
+        String key;
+        PackCache.Metadata cached;
+        try (PhaseTimings.Phase ignored = timings.start("cache lookup")) {
+            key = packCache.computeKey(translators);
+            cached = packCache.restore(key, translators);
+        }
+
+        if (cached != null) {
+            packFiles = cached.packFiles();
+            publishRegistry();
+            long took = System.currentTimeMillis() - start;
+            BedframeConstants.LOGGER.info("Pack cache hit, reused {} packs in {} ms (saved ~{} ms)", packFiles.size(), took, Math.max(0, cached.generationMillis() - took));
+            return true;
+        }
+        BedframeConstants.LOGGER.info("Pack cache miss, generating resource pack");
 
-        // Generate the fold
-        Path packSourceDir;
         try {
-            packSourceDir = Files.createTempDirectory("bedframe");
+            packFiles = buildPack(resourcePack, timings);
         } catch (IOException e) {
-            BedframeConstants.LOGGER.error("Couldn't create resource pack temporary directory", e);
+            BedframeConstants.LOGGER.error("Couldn't generate resource pack", e);
+            return false;
+        }
+
+        publishRegistry();
+        long took = System.currentTimeMillis() - start;
+        BedframeConstants.LOGGER.info("Generated resource pack in {} ms ({})", took, timings);
+        timings.logSlowest("units", SUMMARY_COUNT);
+        timings.logSlowest("models", SUMMARY_COUNT);
+        try (PhaseTimings.Phase ignored = timings.start("cache save")) {
+            packCache.save(key, packFiles, took, translators);
+        }
+        return true;
+    }
+
+    /**
+     * How long each phase of the last generation or rebuild took, complete once its future is
+     */
+    public PhaseTimings getLastTimings() {
+        return lastTimings;
+    }
+
+    // Rebuilds don't publish, since Geyser only registers blocks and items once
+    private void publishRegistry() {
+        TranslationRegistry.Builder builder = new TranslationRegistry.Builder();
+        translators.forEach(translator -> translator.populateRegistry(builder));
+        TranslationRegistry registry = builder.build();
+        TranslationRegistry.publish(registry);
+        BedframeConstants.LOGGER.info("Translated {} items and {} block states", registry.getItemCount(), registry.getBlockStateCount());
+    }
+
+    // Translates whatever changed since the last build and writes the packs next to the given file
+    private List<Path> buildPack(Path output, PhaseTimings timings) throws IOException {
+        DependencyGraph graph;
+        try (PhaseTimings.Phase ignored = timings.start("graph load")) {
+            graph = DependencyGraph.load(cacheDirectory);
+        }
+
+        PackSink sink = new PackSink();
+        try {
+            for (Translator translator : translators) {
+                try (PhaseTimings.Phase ignored = timings.start("translate " + translator.getClass().getSimpleName())) {
+                    translator.translate(sink, graph);
+                }
+            }
+
+            graph.logStats();
+            try (PhaseTimings.Phase ignored = timings.start("graph save")) {
+                graph.save(sink);
+            }
+            return packGenerator.generatePack(sink, graph, output, translators, timings);
+        } finally {
+            ResourceHelper.clearAssetCache();
+        }
+    }
+
+    // Rebuilt packs are only served for the session they were made in
+    private void clearRebuilds() throws IOException {
+        if (Files.notExists(rebuildDirectory)) {
+            return;
+        }
+
+        try (Stream<Path> files = Files.list(rebuildDirectory)) {
+            for (Path file : files.toList()) {
+                deleteRecursively(file);
+            }
+        }
+    }
+
+    // Split packs and the report of a rebuild all start with its name
+    private void deleteRebuild(String name) {
+        if (Files.notExists(rebuildDirectory)) {
             return;
         }
 
-        Path resourcePack = BedframeInitializer.CONFIG_DIR.resolve("bedframe.zip");
+        try (Stream<Path> files = Files.list(rebuildDirectory)) {
+            for (Path file : files.toList()) {
+                String fileName = file.getFileName().toString();
+                if (fileName.startsWith(name + ".") || fileName.startsWith(name + "-")) {
+                    deleteRecursively(file);
+                }
+            }
+        } catch (IOException e) {
+            BedframeConstants.LOGGER.warn("Couldn't delete the files of rebuild {}", name, e);
+        }
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> files = Files.list(path)) {
+                for (Path file : files.toList()) {
+                    deleteRecursively(file);
+                }
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * Rebuilds the pack in the background for sessions that connect from now on, only translating what changed.
+     * Blocks and items are registered with Geyser once at startup, so changes to those still need a restart.
+     * @return a future that completes with a message describing the outcome
+     */
+    public CompletableFuture<String> rebuild() {
+        if (!resources.isDone()) {
+            return CompletableFuture.completedFuture("The resource pack is still being generated");
+        }
+
+        if (!rebuilding.compareAndSet(false, true)) {
+            return CompletableFuture.completedFuture("The resource pack is already being rebuilt");
+        }
+
+        CompletableFuture<String> future = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                future.complete(rebuildPack());
+            } catch (Throwable e) {
+                BedframeConstants.LOGGER.error("Couldn't rebuild resource pack", e);
+                future.complete("Couldn't rebuild the resource pack, see the server log");
+            } finally {
+                rebuilding.set(false);
+            }
+        }, "Bedframe Pack Rebuilder");
+        thread.setDaemon(true);
+        thread.setContextClassLoader(Thread.currentThread().getContextClassLoader());
+        thread.start();
+        return future;
+    }
+
+    private String rebuildPack() throws IOException {
+        long start = System.currentTimeMillis();
+        PhaseTimings timings = PhaseTimings.begin();
+        lastTimings = timings;
+        List<JsonElement> previousRegistrations = translators.stream().map(Translator::writeRegistrations).toList();
 
+        // Every rebuild gets new files, since Geyser may still be sending the previous ones to someone
+        String name = "bedframe-" + start;
+        List<Path> packs;
+        try {
+            packs = buildPack(rebuildDirectory.resolve(name + ".zip"), timings);
+        } catch (IOException | RuntimeException e) {
+            restoreRegistrations(previousRegistrations);
+            deleteRebuild(name);
+            throw e;
+        }
+
+        // The packs have to match what Geyser registered at startup, so those changes can't be served until a restart
+        List<JsonElement> registrations = translators.stream().map(Translator::writeRegistrations).toList();
+        if (!registrations.equals(previousRegistrations)) {
+            restoreRegistrations(previousRegistrations);
+            deleteRebuild(name);
+
+            BedframeConstants.LOGGER.warn("Blocks or items changed since startup, the resource pack can't be rebuilt until a restart");
+            return "Blocks or items changed since startup, the resource pack needs a restart";
+        }
+
+        rebuiltPacks = packs.stream().map(this::createPack).toList();
+
+        // New sessions only get the new packs, so the previous rebuild's files have no use anymore
+        String previous = rebuildName;
+        List<Path> previousFiles = rebuiltFiles;
+        rebuildName = name;
+        rebuiltFiles = packs;
+        if (previous != null) {
+            unhost(previousFiles);
+            deleteRebuild(previous);
+        }
+
+        long took = System.currentTimeMillis() - start;
+        BedframeConstants.LOGGER.info("Rebuilt resource pack in {} ms ({})", took, timings);
+        timings.logSlowest("units", SUMMARY_COUNT);
+        timings.logSlowest("models", SUMMARY_COUNT);
+        return "Rebuilt the resource pack in " + took + " ms";
+    }
+
+    // Puts the translators back the way Geyser saw them at startup
+    private void restoreRegistrations(List<JsonElement> registrations) {
+        for (int i = 0; i < translators.size(); i++) {
+            translators.get(i).readRegistrations(registrations.get(i));
+        }
+    }
+
+    private synchronized PackHttpServer getHttpServer() throws IOException {
+        if (httpServer == null) {
+            BedframeConfig config = BedframeInitializer.CONFIG;
+            httpServer = new PackHttpServer(config.hostAddress, config.hostPort, config.hostPublicUrl, config.hostThreads);
+        }
+        return httpServer;
+    }
+
+    // Hosted packs are downloaded by the client itself, the rest is streamed through the Geyser connection
+    private ResourcePack createPack(Path file) {
+        if (BedframeInitializer.CONFIG.hostPacks) {
+            if (BedframeInitializer.CONFIG.hostPublicUrl.isBlank()) {
+                BedframeConstants.LOGGER.warn("hostPacks is enabled, but hostPublicUrl isn't set");
+            } else {
+                try {
+                    return ResourcePack.create(PackCodec.url(getHttpServer().host(file)));
+                } catch (Exception e) {
+                    BedframeConstants.LOGGER.error("Couldn't host {}, sending it through Geyser instead", file.getFileName(), e);
+                }
+            }
+        }
+
+        return ResourcePack.create(PackCodec.path(file));
+    }
+
+    private synchronized void unhost(List<Path> files) {
+        if (httpServer != null) {
+            files.forEach(httpServer::unhost);
+        }
+    }
+
+    public synchronized void shutdown() {
+        if (httpServer != null) {
+            httpServer.stop();
+            httpServer = null;
+        }
+    }
+
+    public void registerHooks() {
         EventBus<EventRegistrar> eventBus = GeyserApi.api().eventBus();
         for (Translator translator : translators) {
-            translator.register(eventBus, packSourceDir);
+            translator.register(eventBus, this::awaitResources);
         }
+        GeyserHelper.trackSessions(eventBus, this);
+        BedframeMetrics.trackSessions(eventBus, this);
 
         eventBus.subscribe(this, GeyserDefineResourcePacksEvent.class, event -> {
-            try {
-                // For some reason, GeyserDefineResourcePacksEvent is called once *before* blocks
-                // FIXME: It's probably better to generate resources before the event is ever called
-                if (!translators.stream().allMatch(Translator::hasProvidedResources)) return;
-
-                // This event is called multiple times, but regenerating the resource pack each time is redundant
-                if (!generatedResources) {
-                    Files.deleteIfExists(resourcePack);
-                    packGenerator.generatePack(packSourceDir, resourcePack.toFile(), translators);
-                    generatedResources = true;
-                }
+            if (!awaitResources()) return;
 
-                event.register(ResourcePack.create(PackCodec.path(resourcePack)));
-            } catch (IOException e) {
-                BedframeConstants.LOGGER.error("Couldn't generate resource pack", e);
+            List<ResourcePack> packs = packFiles.stream().map(this::createPack).toList();
+            registeredPacks = packs;
+            packs.forEach(event::register);
+        });
+
+        eventBus.subscribe(this, SessionLoadResourcePacksEvent.class, event -> {
+            List<ResourcePack> rebuilt = rebuiltPacks;
+            if (rebuilt.isEmpty()) return;
+
+            for (ResourcePack original : registeredPacks) {
+                event.unregister(original.manifest().header().uuid());
             }
+            rebuilt.forEach(event::register);
         });
     }
 }
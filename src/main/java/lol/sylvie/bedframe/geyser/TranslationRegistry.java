@@ -0,0 +1,82 @@
+package lol.sylvie.bedframe.geyser;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.item.Item;
+import net.minecraft.registry.Registries;
+
+import java.util.BitSet;
+
+/**
+ * What was registered with Geyser, indexed by raw registry id so the network code can look it up in constant time.
+ * Instances never change after they are built, a new one is published instead.
+ */
+public final class TranslationRegistry {
+    private static final TranslationRegistry EMPTY = new TranslationRegistry(new long[0], new long[0]);
+    private static volatile TranslationRegistry current = EMPTY;
+
+    // Bits indexed by raw item id and raw block state id
+    private final long[] items;
+    private final long[] blockStates;
+
+    private TranslationRegistry(long[] items, long[] blockStates) {
+        this.items = items;
+        this.blockStates = blockStates;
+    }
+
+    public static TranslationRegistry get() {
+        return current;
+    }
+
+    static void publish(TranslationRegistry registry) {
+        current = registry;
+    }
+
+    private static boolean isSet(long[] bits, int index) {
+        int word = index >>> 6;
+        return index >= 0 && word < bits.length && (bits[word] & (1L << index)) != 0;
+    }
+
+    public boolean isTranslatedItem(Item item) {
+        return isSet(items, Registries.ITEM.getRawId(item));
+    }
+
+    public boolean isTranslatedBlockState(BlockState state) {
+        return isSet(blockStates, Block.getRawIdFromState(state));
+    }
+
+    public int getItemCount() {
+        return countBits(items);
+    }
+
+    public int getBlockStateCount() {
+        return countBits(blockStates);
+    }
+
+    private static int countBits(long[] bits) {
+        int count = 0;
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    public static class Builder {
+        private final BitSet items = new BitSet();
+        private final BitSet blockStates = new BitSet();
+
+        public Builder item(Item item) {
+            items.set(Registries.ITEM.getRawId(item));
+            return this;
+        }
+
+        public Builder blockState(BlockState state) {
+            blockStates.set(Block.getRawIdFromState(state));
+            return this;
+        }
+
+        public TranslationRegistry build() {
+            return new TranslationRegistry(items.toLongArray(), blockStates.toLongArray());
+        }
+    }
+}
@@ -2,64 +2,155 @@ package lol.sylvie.bedframe.geyser;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import lol.sylvie.bedframe.util.BedframeEvents;
+import lol.sylvie.bedframe.util.DependencyTracker;
 import lol.sylvie.bedframe.util.JsonHelper;
+import lol.sylvie.bedframe.util.PhaseTimings;
+import net.minecraft.util.Identifier;
 import net.minecraft.util.Pair;
 import org.geysermc.geyser.api.event.EventBus;
 import org.geysermc.geyser.api.event.EventRegistrar;
 
-import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import static lol.sylvie.bedframe.util.BedframeConstants.LOGGER;
 
 /**
  * Converts Java objects to Bedrock equivalents
  */
 public abstract class Translator implements EventRegistrar {
-    private boolean providedResources = false;
-    private final ArrayList<Pair<String, String>> translations = new ArrayList<>();
+    // Translators may run on several threads at once
+    private final List<Pair<String, String>> translations = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Resolves models and textures and writes them to the resource pack.
+     * Everything the Geyser events need afterward is kept as registration data.
+     * Units whose inputs didn't change since the last build are restored from the graph instead.
+     */
+    public abstract void translate(PackSink sink, DependencyGraph graph);
 
     /**
      * Registers the Geyser events required of this translator
-     * Translators are expected to write to the resource pack here as well.
+     * The listeners should only register once {@code resourcesReady} returns true.
      */
-    public abstract void register(EventBus<EventRegistrar> eventBus, Path packRoot);
+    public abstract void register(EventBus<EventRegistrar> eventBus, BooleanSupplier resourcesReady);
+
+    /**
+     * Feeds everything this translator reads (besides assets) into the pack cache key
+     */
+    public abstract void digestInputs(MessageDigest digest);
+
+    public abstract JsonElement writeRegistrations();
+
+    public abstract void readRegistrations(JsonElement registrations);
+
+    /**
+     * Adds everything this translator registers with Geyser to the registry
+     */
+    public abstract void populateRegistry(TranslationRegistry.Builder builder);
+
+    /**
+     * Adds what the registrations cost Bedrock clients to the report, files are counted by the report itself
+     */
+    public void report(PackReport report) {
+
+    }
 
-    public ArrayList<Pair<String, String>> getTranslations() {
+    public List<Pair<String, String>> getTranslations() {
         return translations;
     }
 
-    protected void markResourcesProvided() {
-        this.providedResources = true;
+    // Helper methods
+    /**
+     * Restores a unit from the previous build if possible, otherwise translates it while recording its dependencies
+     * @param digest describes everything about the unit that isn't an asset
+     */
+    protected <T> T translateUnit(DependencyGraph graph, PackSink sink, String unit, String digest, Class<T> type, Supplier<T> translation) {
+        JsonElement cached = graph.reuse(unit, digest, sink);
+        if (cached != null) {
+            try {
+                return JsonHelper.GSON.fromJson(cached, type);
+            } catch (JsonParseException e) {
+                LOGGER.warn("Couldn't restore {} from the previous build", unit, e);
+            }
+        }
+
+        BedframeEvents.UnitTranslation event = new BedframeEvents.UnitTranslation();
+        event.unit = unit;
+        event.namespace = DependencyGraph.getNamespace(unit);
+        event.begin();
+        long start = System.nanoTime();
+
+        Object[] result = new Object[1];
+        DependencyTracker.Dependencies dependencies = DependencyTracker.track(() -> result[0] = translation.get());
+        T data = type.cast(result[0]);
+
+        PhaseTimings.current().addTime("units", unit, System.nanoTime() - start);
+        event.commit();
+        graph.record(unit, digest, dependencies, JsonHelper.GSON.toJsonTree(data, type));
+        return data;
     }
 
-    public boolean hasProvidedResources() {
-        return providedResources;
+    /**
+     * Wraps a registration so every block or item gets a Flight Recorder event and its time is added to the phase timings
+     */
+    protected static <T> BiConsumer<Identifier, T> timeRegistrations(String kind, BiConsumer<Identifier, T> registration) {
+        return (identifier, value) -> {
+            BedframeEvents.Registration event = new BedframeEvents.Registration();
+            event.kind = kind;
+            event.identifier = identifier.toString();
+            event.namespace = identifier.getNamespace();
+            event.begin();
+            long start = System.nanoTime();
+            try {
+                registration.accept(identifier, value);
+            } finally {
+                PhaseTimings.current().addTime("registrations", kind + "/" + identifier, System.nanoTime() - start);
+                event.commit();
+            }
+        };
     }
 
-    // Helper methods
     protected void forEachKey(JsonObject root, BiConsumer<String, JsonElement> function) {
         for (Map.Entry<String, JsonElement> entry : root.entrySet()) {
             function.accept(entry.getKey(), entry.getValue());
         }
     }
 
+    // Every translate starts over, the keys don't depend on which units were reused
+    protected void clearTranslations() {
+        translations.clear();
+    }
+
     protected void addTranslationKey(String bedrockKey, String javaKey) {
         translations.add(new Pair<>(bedrockKey, javaKey));
     }
 
+    // Texture name -> texture path, sorted so the output doesn't depend on thread timing
+    protected static JsonObject buildTextureData(Map<String, String> textureData) {
+        JsonObject textureDataObject = new JsonObject();
+        new TreeMap<>(textureData).forEach((textureName, texturePath) -> {
+            JsonObject textureObject = new JsonObject();
+            textureObject.addProperty("textures", texturePath);
+            textureDataObject.add(textureName, textureObject);
+        });
+        return textureDataObject;
+    }
+
     protected void writeOrThrow(FileWriter writer, String content) {
         try {
             writer.write(content);
         } catch (IOException e) { throw new RuntimeException(e); }
     }
-
-    protected static void writeJsonToFile(JsonObject object, File file) {
-        try (FileWriter writer = new FileWriter(file)) {
-            JsonHelper.GSON.toJson(object, writer);
-        } catch (IOException e) { throw new RuntimeException(e); }
-    }
 }
@@ -0,0 +1,252 @@
+package lol.sylvie.bedframe.geyser.translator;
+
+import net.minecraft.block.BlockState;
+import net.minecraft.state.property.EnumProperty;
+import net.minecraft.state.property.Property;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.function.Function;
+
+import static lol.sylvie.bedframe.util.BedframeConstants.LOGGER;
+
+/**
+ * Plans how the states of a block are represented on Bedrock.
+ * Properties that don't change the state data at all (like the power of a lamp that looks the same either way) are left out entirely,
+ * so several Java states share one Bedrock state.
+ * States that look the same are then grouped, with short Molang conditions that pick out each group.
+ * Conditions are built from terms like "facing is north or south and lit is true", only mentioning the properties a group actually depends on.
+ * States without data don't care which group they end up in.
+ * Every plan is checked against the state data before it's used, falling back to a permutation per state.
+ */
+class BlockPermutations {
+    /**
+     * @param properties the properties Bedrock gets, in the order of the block's properties
+     * @param base applies to every state no permutation matches, null if there is no state data at all
+     */
+    record Plan<T>(List<Property<?>> properties, @Nullable T base, List<Permutation<T>> permutations) {
+        // Bedrock has a state for every combination of the properties it knows about
+        int getBedrockStateCount() {
+            int count = 1;
+            for (Property<?> property : properties) {
+                count *= property.getValues().size();
+            }
+            return count;
+        }
+    }
+
+    record Permutation<T>(T data, String condition) {
+
+    }
+
+    static <T> Plan<T> plan(String name, Collection<BlockState> blockStates, Collection<Property<?>> properties, Function<BlockState, T> dataFunction) {
+        List<BlockState> states = List.copyOf(blockStates);
+        List<T> stateData = new ArrayList<>(states.size());
+        for (BlockState state : states) {
+            stateData.add(dataFunction.apply(state));
+        }
+
+        List<Property<?>> propertyList = properties.stream().filter(property -> isRelevant(property, properties, states, stateData)).toList();
+
+        // States grouped by their data, in state order so the output is stable
+        Map<T, Integer> groupIndexes = new HashMap<>();
+        List<T> groupData = new ArrayList<>();
+        List<List<Integer>> groups = new ArrayList<>();
+        int[] groupOf = new int[states.size()];
+        for (int i = 0; i < states.size(); i++) {
+            T data = stateData.get(i);
+            if (data == null) {
+                groupOf[i] = -1;
+                continue;
+            }
+
+            int group = groupIndexes.computeIfAbsent(data, key -> {
+                groupData.add(key);
+                groups.add(new ArrayList<>());
+                return groupData.size() - 1;
+            });
+            groups.get(group).add(i);
+            groupOf[i] = group;
+        }
+
+        if (groups.isEmpty()) {
+            return new Plan<>(propertyList, null, List.of());
+        }
+
+        // The biggest group doesn't need a condition
+        int base = 0;
+        for (int group = 1; group < groups.size(); group++) {
+            if (groups.get(group).size() > groups.get(base).size()) base = group;
+        }
+
+        // Every state as the index of its value in each property
+        int[][] values = new int[states.size()][propertyList.size()];
+        List<List<?>> propertyValues = propertyList.stream().<List<?>>map(property -> List.copyOf(property.getValues())).toList();
+        for (int i = 0; i < states.size(); i++) {
+            for (int p = 0; p < propertyList.size(); p++) {
+                values[i][p] = propertyValues.get(p).indexOf(states.get(i).get(propertyList.get(p)));
+            }
+        }
+
+        List<Permutation<T>> permutations = new ArrayList<>();
+        List<List<boolean[][]>> permutationTerms = new ArrayList<>();
+        for (int group = 0; group < groups.size(); group++) {
+            if (group == base) continue;
+
+            List<boolean[][]> terms = cover(groups.get(group), group, groupOf, values, propertyValues);
+            permutationTerms.add(terms);
+            permutations.add(new Permutation<>(groupData.get(group), buildCondition(terms, propertyList, propertyValues)));
+        }
+
+        // A wrong plan would quietly render states wrong on Bedrock, so this is checked before anything uses it
+        T baseData = groupData.get(base);
+        for (int i = 0; i < states.size(); i++) {
+            T data = stateData.get(i);
+            if (data == null) continue;
+
+            T resolved = baseData;
+            for (int permutation = 0; permutation < permutations.size(); permutation++) {
+                int state = i;
+                if (permutationTerms.get(permutation).stream().anyMatch(term -> contains(term, values[state]))) {
+                    resolved = permutations.get(permutation).data();
+                }
+            }
+
+            if (!data.equals(resolved)) {
+                LOGGER.warn("Grouped the states of {} wrong ({} doesn't match), giving every state its own permutation", name, states.get(i));
+                return new Plan<>(propertyList, baseData, exactPermutations(stateData, baseData, values, propertyList, propertyValues));
+            }
+        }
+
+        return new Plan<>(propertyList, baseData, permutations);
+    }
+
+    // One permutation per Bedrock state that doesn't use the base, with a condition on every property
+    private static <T> List<Permutation<T>> exactPermutations(List<T> stateData, T baseData, int[][] values, List<Property<?>> properties, List<List<?>> propertyValues) {
+        Map<List<Integer>, Permutation<T>> permutations = new LinkedHashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            T data = stateData.get(i);
+            if (data == null || data.equals(baseData)) continue;
+
+            boolean[][] term = new boolean[values[i].length][];
+            for (int p = 0; p < term.length; p++) {
+                term[p] = new boolean[propertyValues.get(p).size()];
+                term[p][values[i][p]] = true;
+            }
+            permutations.putIfAbsent(Arrays.stream(values[i]).boxed().toList(), new Permutation<>(data, buildCondition(List.of(term), properties, propertyValues)));
+        }
+        return List.copyOf(permutations.values());
+    }
+
+    // A property matters if changing only its value changes the data of any state, having no data counts as different data
+    private static <T> boolean isRelevant(Property<?> property, Collection<Property<?>> properties, List<BlockState> states, List<T> stateData) {
+        // The values of every other property -> the data of the first state seen with them
+        Map<List<Object>, T> dataByOthers = new HashMap<>();
+        Set<List<Object>> seen = new HashSet<>();
+        for (int i = 0; i < states.size(); i++) {
+            List<Object> others = new ArrayList<>();
+            for (Property<?> other : properties) {
+                if (other != property) others.add(states.get(i).get(other));
+            }
+
+            T data = stateData.get(i);
+            if (seen.add(others)) {
+                if (data != null) dataByOthers.put(others, data);
+            } else if (!Objects.equals(dataByOthers.get(others), data)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Greedily grows a term around every state that isn't covered yet, then drops the terms others already cover
+    private static List<boolean[][]> cover(List<Integer> members, int group, int[] groupOf, int[][] values, List<List<?>> propertyValues) {
+        List<boolean[][]> terms = new ArrayList<>();
+        Set<Integer> uncovered = new LinkedHashSet<>(members);
+        while (!uncovered.isEmpty()) {
+            int seed = uncovered.iterator().next();
+            boolean[][] term = new boolean[propertyValues.size()][];
+            for (int p = 0; p < term.length; p++) {
+                term[p] = new boolean[propertyValues.get(p).size()];
+                term[p][values[seed][p]] = true;
+            }
+
+            // Dropping whole properties first keeps the conditions short
+            for (int p = 0; p < term.length; p++) {
+                boolean[] previous = term[p].clone();
+                Arrays.fill(term[p], true);
+                if (!isValid(term, group, groupOf, values)) term[p] = previous;
+            }
+
+            for (int p = 0; p < term.length; p++) {
+                for (int v = 0; v < term[p].length; v++) {
+                    if (term[p][v]) continue;
+                    term[p][v] = true;
+                    if (!isValid(term, group, groupOf, values)) term[p][v] = false;
+                }
+            }
+
+            terms.add(term);
+            uncovered.removeIf(state -> contains(term, values[state]));
+        }
+
+        for (Iterator<boolean[][]> iterator = terms.iterator(); iterator.hasNext(); ) {
+            boolean[][] term = iterator.next();
+            boolean redundant = members.stream()
+                    .filter(state -> contains(term, values[state]))
+                    .allMatch(state -> terms.stream().anyMatch(other -> other != term && contains(other, values[state])));
+            if (redundant) iterator.remove();
+        }
+
+        return terms;
+    }
+
+    // A term may match states of its own group and states without data, nothing else
+    private static boolean isValid(boolean[][] term, int group, int[] groupOf, int[][] values) {
+        for (int state = 0; state < values.length; state++) {
+            if (groupOf[state] != group && groupOf[state] != -1 && contains(term, values[state])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean contains(boolean[][] term, int[] state) {
+        for (int p = 0; p < term.length; p++) {
+            if (!term[p][state[p]]) return false;
+        }
+        return true;
+    }
+
+    private static String buildCondition(List<boolean[][]> terms, List<Property<?>> properties, List<List<?>> propertyValues) {
+        List<String> termConditions = new ArrayList<>();
+        for (boolean[][] term : terms) {
+            List<String> clauses = new ArrayList<>();
+            for (int p = 0; p < term.length; p++) {
+                List<String> options = new ArrayList<>();
+                for (int v = 0; v < term[p].length; v++) {
+                    if (term[p][v]) options.add(buildClause(properties.get(p), propertyValues.get(p).get(v)));
+                }
+
+                if (options.size() == term[p].length) continue;
+                clauses.add(options.size() == 1 ? options.get(0) : "(" + String.join(" || ", options) + ")");
+            }
+
+            String condition = clauses.isEmpty() ? "true" : String.join(" && ", clauses);
+            termConditions.add(terms.size() > 1 && clauses.size() > 1 ? "(" + condition + ")" : condition);
+        }
+
+        return String.join(" || ", termConditions);
+    }
+
+    static String buildClause(Property<?> property, Object value) {
+        String propertyValue = value.toString();
+        if (property instanceof EnumProperty<?>) {
+            propertyValue = "'" + propertyValue.toLowerCase() + "'";
+        }
+
+        return "q.block_property('%name%') == %value%"
+                .replace("%name%", property.getName())
+                .replace("%value%", propertyValue);
+    }
+}
@@ -1,6 +1,8 @@
 package lol.sylvie.bedframe.geyser.translator;
 
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.reflect.TypeToken;
 import eu.pb4.polymer.blocks.api.BlockResourceCreator;
 import eu.pb4.polymer.blocks.api.PolymerBlockModel;
 import eu.pb4.polymer.blocks.api.PolymerTexturedBlock;
@@ -8,11 +10,18 @@ import eu.pb4.polymer.core.api.block.PolymerBlock;
 import eu.pb4.polymer.resourcepack.api.AssetPaths;
 import eu.pb4.polymer.resourcepack.extras.api.format.item.ItemAsset;
 import eu.pb4.polymer.resourcepack.extras.api.format.item.model.BasicItemModel;
+import lol.sylvie.bedframe.geyser.DependencyGraph;
+import lol.sylvie.bedframe.geyser.PackReport;
+import lol.sylvie.bedframe.geyser.PackSink;
+import lol.sylvie.bedframe.geyser.TranslationRegistry;
 import lol.sylvie.bedframe.geyser.Translator;
 import lol.sylvie.bedframe.mixin.BlockResourceCreatorAccessor;
 import lol.sylvie.bedframe.mixin.PolymerBlockResourceUtilsAccessor;
 import lol.sylvie.bedframe.util.BedframeConstants;
+import lol.sylvie.bedframe.util.HashHelper;
 import lol.sylvie.bedframe.util.JsonHelper;
+import lol.sylvie.bedframe.util.ParallelHelper;
+import lol.sylvie.bedframe.util.PhaseTimings;
 import lol.sylvie.bedframe.util.ResourceHelper;
 import net.minecraft.block.Block;
 import net.minecraft.block.BlockState;
@@ -44,13 +53,16 @@ import org.jetbrains.annotations.Nullable;
 import org.joml.Vector3f;
 import xyz.nucleoid.packettweaker.PacketContext;
 
-import java.nio.file.Path;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Stream;
 
 import static lol.sylvie.bedframe.util.BedframeConstants.LOGGER;
-import static lol.sylvie.bedframe.util.PathHelper.createDirectoryOrThrow;
 
 public class BlockTranslator extends Translator {
     // Maps parent models to a map containing the translations between Java sides and Bedrock sides
@@ -96,7 +108,14 @@ public class BlockTranslator extends Translator {
             )
     );
 
+    private static final String RENDER_METHOD = "alpha_test_single_sided";
+    private static final Type REGISTRATIONS_TYPE = new TypeToken<Map<String, Map<String, StateData>>>() {}.getType();
+
     private final HashMap<Identifier, PolymerBlock> blocks = new HashMap<>();
+    // Block identifier -> stringified block state -> state data
+    private final Map<String, Map<String, StateData>> registrations = new ConcurrentHashMap<>();
+    // Derived from the registrations, so it is cleared along with them
+    private final Map<String, BlockPermutations.Plan<StateData>> permutationPlans = new ConcurrentHashMap<>();
 
     public BlockTranslator() {
         Stream<Identifier> blockIds = Registries.BLOCK.getIds().stream();
@@ -111,11 +130,20 @@ public class BlockTranslator extends Translator {
 
     private void forEachBlock(BiConsumer<Identifier, PolymerBlock> function) {
         for (Map.Entry<Identifier, PolymerBlock> entry : blocks.entrySet()) {
-            try {
-                function.accept(entry.getKey(), entry.getValue());
-            } catch (RuntimeException e) {
-                LOGGER.error("Couldn't load block {}", entry.getKey(), e);
-            }
+            acceptBlock(function, entry);
+        }
+    }
+
+    // Only for work that doesn't touch Geyser, see ParallelHelper
+    private void forEachBlockParallel(BiConsumer<Identifier, PolymerBlock> function) {
+        ParallelHelper.forEach(blocks.entrySet(), entry -> acceptBlock(function, entry));
+    }
+
+    private void acceptBlock(BiConsumer<Identifier, PolymerBlock> function, Map.Entry<Identifier, PolymerBlock> entry) {
+        try {
+            function.accept(entry.getKey(), entry.getValue());
+        } catch (RuntimeException e) {
+            LOGGER.error("Couldn't load block {}", entry.getKey(), e);
         }
     }
 
@@ -134,187 +162,223 @@ public class BlockTranslator extends Translator {
         }
     }
 
-    private BoxComponent voxelShapeToBoxComponent(VoxelShape shape) {
-        if (shape.isEmpty()) {
-            return BoxComponent.emptyBox();
-        }
-
-        Box box = shape.getBoundingBox();
-
-        float sizeX = (float) box.getLengthX() * 16;
-        float sizeY = (float) box.getLengthY() * 16;
-        float sizeZ = (float) box.getLengthZ() * 16;
+    private String stringifyState(BlockState state) {
+        return BlockArgumentParser.stringifyBlockState(state);
+    }
 
-        Vec3d origin = box.getMinPos();
-        Vector3f originNormalized = origin.toVector3f();
+    private @Nullable PolymerBlockModel[] getPolymerModels(PolymerBlock block, BlockState state) {
+        BlockState polymerBlockState = block.getPolymerBlockState(state, PacketContext.get());
+        BlockResourceCreator creator = PolymerBlockResourceUtilsAccessor.getCREATOR();
+        return ((BlockResourceCreatorAccessor)(Object)creator).getModels().get(polymerBlockState);
+    }
 
-        return new BoxComponent(originNormalized.x() - 8, originNormalized.y(), originNormalized.z() - 8, sizeX, sizeY, sizeZ);
+    // Everything about a block that affects its translation, besides the assets it reads
+    private String describeBlock(Identifier identifier) {
+        StringBuilder description = new StringBuilder(identifier.toString());
+        try {
+            for (BlockState state : Registries.BLOCK.get(identifier).getStateManager().getStates()) {
+                description.append('|').append(stringifyState(state)).append('#').append(Block.getRawIdFromState(state));
+                description.append(Arrays.toString(getPolymerModels(blocks.get(identifier), state)));
+            }
+        } catch (RuntimeException e) {
+            // The translation will fail on this block too, which is fine to cache
+            description.append("|error");
+        }
+        return description.toString();
     }
 
     // Referenced https://github.com/GeyserMC/Hydraulic/blob/master/shared/src/main/java/org/geysermc/hydraulic/block/BlockPackModule.java#L54
-    public void handle(GeyserDefineCustomBlocksEvent event, Path packRoot) {
-        Path textureDir = createDirectoryOrThrow(packRoot.resolve("textures"));
-        createDirectoryOrThrow(textureDir.resolve("blocks"));
+    @Override
+    public void translate(PackSink sink, DependencyGraph graph) {
+        registrations.clear();
+        permutationPlans.clear();
+        clearTranslations();
 
         JsonObject terrainTextureObject = new JsonObject();
         terrainTextureObject.addProperty("resource_pack_name", "Bedframe");
         terrainTextureObject.addProperty("texture_name", "atlas.terrain");
 
-        JsonObject textureDataObject = new JsonObject();
+        Map<String, String> textureData = new ConcurrentHashMap<>();
+        JavaToBedrockGeometryTranslator.Cache geometryCache = new JavaToBedrockGeometryTranslator.Cache("blocks", sink);
 
-        forEachBlock((identifier, block) -> {
+        forEachBlockParallel((identifier, block) -> {
             Block realBlock = Registries.BLOCK.get(identifier);
 
             // Block names
             addTranslationKey("tile." + identifier.toString() + ".name", realBlock.getTranslationKey());
 
-            NonVanillaCustomBlockData.Builder builder = NonVanillaCustomBlockData.builder()
-                    .name(identifier.getPath())
-                    .namespace(identifier.getNamespace())
-                    .creativeGroup("itemGroup." + identifier.getNamespace() + ".blocks")
-                    .creativeCategory(CreativeCategory.CONSTRUCTION)
-                    .includedInCreativeInventory(true);
+            String digest = HashHelper.sha256(describeBlock(identifier).getBytes(StandardCharsets.UTF_8));
+            BlockUnit unit = translateUnit(graph, sink, "block/" + identifier, digest, BlockUnit.class,
+                    () -> translateBlock(realBlock, block, sink, geometryCache));
 
-            // Properties
-            populateProperties(builder, realBlock.getStateManager().getProperties());
+            textureData.putAll(unit.textures());
+            if (unit.states() != null) {
+                registrations.put(identifier.toString(), unit.states());
+            }
+        });
 
-            // Block states/permutations
-            List<CustomBlockPermutation> permutations = new ArrayList<>();
-            for (BlockState state : realBlock.getStateManager().getStates()) {
-                CustomBlockComponents.Builder stateComponentBuilder = CustomBlockComponents.builder();
-
-                // Obtain model data from polymers internal api
-                BlockState polymerBlockState = block.getPolymerBlockState(state, PacketContext.get());
-                BlockResourceCreator creator = PolymerBlockResourceUtilsAccessor.getCREATOR();
-                PolymerBlockModel[] polymerBlockModels = ((BlockResourceCreatorAccessor)(Object)creator).getModels().get(polymerBlockState);
-                PolymerBlockModel modelEntry = null;
-                if (polymerBlockModels != null) {
-                    modelEntry = polymerBlockModels[0]; // TODO: java selects one by weight, does bedrock support this?
-                } else if (realBlock instanceof PolymerTexturedBlock) {
-                    continue;
-                }
+        geometryCache.logStats("block");
 
-                if (modelEntry.model().equals(BedframeConstants.POLYMER_EMPTY_BLOCK_MODEL) || polymerBlockState.isAir() || polymerBlockState.getBlock() == Blocks.BARRIER) {
-                    Identifier itemAsset = realBlock.asItem().getComponents().get(DataComponentTypes.ITEM_MODEL);
-                    ItemAsset itemDescription = ResourceHelper.readJsonResource(AssetPaths.itemAsset(itemAsset), ItemAsset.class);
-                    if (itemDescription != null && itemDescription.model() instanceof BasicItemModel basicItemModel && basicItemModel.model() != null) {
-                        Identifier modelId = basicItemModel.model();
-                        modelEntry = new PolymerBlockModel(modelId, 0, 0, false, 0);
-                    }
-                }
+        terrainTextureObject.add("texture_data", buildTextureData(textureData));
+        sink.writeJson("textures/terrain_texture.json", terrainTextureObject);
+    }
 
-                if (modelEntry == null) {
-                    return;
-                }
+    private BlockUnit translateBlock(Block realBlock, PolymerBlock block, PackSink sink, JavaToBedrockGeometryTranslator.Cache geometryCache) {
+        Map<String, String> textureData = new TreeMap<>();
+
+        // Block states/permutations
+        Map<String, StateData> states = new LinkedHashMap<>();
+        for (BlockState state : realBlock.getStateManager().getStates()) {
+            // Obtain model data from polymers internal api
+            BlockState polymerBlockState = block.getPolymerBlockState(state, PacketContext.get());
+            PolymerBlockModel[] polymerBlockModels = getPolymerModels(block, state);
+            PolymerBlockModel modelEntry = null;
+            if (polymerBlockModels != null) {
+                modelEntry = polymerBlockModels[0]; // TODO: java selects one by weight, does bedrock support this?
+            } else if (realBlock instanceof PolymerTexturedBlock) {
+                continue;
+            }
 
-                // Rotation
-                TransformationComponent rotationComponent = new TransformationComponent((360 - modelEntry.x()) % 360, (360 - modelEntry.y()) % 360, 0);
-                stateComponentBuilder.transformation(rotationComponent);
+            if (modelEntry == null) {
+                return new BlockUnit(null, textureData);
+            }
 
-                // Geometry
-                JsonObject blockModel = ResourceHelper.readJsonResource(modelEntry.model().getNamespace(), "models/" + modelEntry.model().getPath() + ".json");
-                if (blockModel == null) {
-                    LOGGER.warn("Couldn't load model for blockstate {}", state);
-                    continue;
+            if (modelEntry.model().equals(BedframeConstants.POLYMER_EMPTY_BLOCK_MODEL) || polymerBlockState.isAir() || polymerBlockState.getBlock() == Blocks.BARRIER) {
+                Identifier itemAsset = realBlock.asItem().getComponents().get(DataComponentTypes.ITEM_MODEL);
+                ItemAsset itemDescription = ResourceHelper.readJsonResource(AssetPaths.itemAsset(itemAsset), ItemAsset.class);
+                if (itemDescription != null && itemDescription.model() instanceof BasicItemModel basicItemModel && basicItemModel.model() != null) {
+                    Identifier modelId = basicItemModel.model();
+                    modelEntry = new PolymerBlockModel(modelId, 0, 0, false, 0);
                 }
+            }
 
-                ModelData modelData = ModelData.fromJson(blockModel);
-                String geometryIdentifier = "minecraft:geometry.full_block";
-                String renderMethod = "alpha_test_single_sided";
+            // Geometry
+            ResourceHelper.FlattenedModel blockModel = ResourceHelper.readModel(modelEntry.model());
+            if (blockModel == null) {
+                LOGGER.warn("Couldn't load model for blockstate {}", state);
+                continue;
+            }
+
+            String geometryIdentifier = "minecraft:geometry.full_block";
+
+            Map<String, String> refmap = new HashMap<>();
+            List<Pair<String, String>> faceMap = parentFaceMap.getOrDefault(blockModel.parent() == null ? "" : blockModel.parent().getPath(), parentFaceMap.get("block/cube_all"));
+            JavaToBedrockGeometryTranslator.ConversionResult result = geometryCache.convert(modelEntry.model());
+            if (result != null) {
+                geometryIdentifier = result.geometryIdentifier();
+                faceMap = JavaToBedrockGeometryTranslator.extractTextureFaceMap(result.elements());
+                refmap = result.textureReferenceMap();
+            }
+
+            // Textures
+            Map<String, String> materials = new LinkedHashMap<>();
+            for (Pair<String, String> face : faceMap) {
+                String javaFaceName = face.getLeft();
+                String bedrockFaceName = face.getRight();
+                if (!refmap.containsKey(javaFaceName)) continue;
+
+                String textureName = JavaToBedrockGeometryTranslator.resolvePath(refmap, javaFaceName);
+                Identifier textureIdentifier = Identifier.of(textureName);
+                String texturePath = "textures/" + textureIdentifier.getPath();
+                String bedrockPath = ResourceHelper.javaToBedrockTexture(texturePath, "block");
+
+                textureData.put(textureName, bedrockPath);
+
+                materials.put(bedrockFaceName, textureName);
 
-                Map<String, String> refmap = new HashMap<>();
-                List<Pair<String, String>> faceMap = parentFaceMap.getOrDefault(modelData.parent() == null ? "" : modelData.parent().getPath(), parentFaceMap.get("block/cube_all"));
                 try {
-                    JavaToBedrockGeometryTranslator.ConversionResult result = JavaToBedrockGeometryTranslator.convert(modelEntry.model(), "blocks", packRoot);
-                    geometryIdentifier = result.geometryIdentifier();
-                    faceMap = JavaToBedrockGeometryTranslator.extractTextureFaceMap(result.elements());
-                    refmap = result.textureReferenceMap();
+                    ResourceHelper.copyResource(textureIdentifier.getNamespace(), texturePath + ".png", sink, bedrockPath + ".png");
                 } catch (Exception e) {
-                    LOGGER.error("Could not convert block model: {}", modelEntry.model());
+                    LOGGER.error("Could not copy texture {}", textureIdentifier);
                 }
+            }
 
-                GeometryComponent geometryComponent = GeometryComponent.builder().identifier(geometryIdentifier).build();
-                stateComponentBuilder.geometry(geometryComponent);
-
-                // Textures
-                for (Pair<String, String> face : faceMap) {
-                    String javaFaceName = face.getLeft();
-                    String bedrockFaceName = face.getRight();
-                    if (!refmap.containsKey(javaFaceName)) continue;
-
-                    String textureName = JavaToBedrockGeometryTranslator.resolvePath(refmap, javaFaceName);
-                    Identifier textureIdentifier = Identifier.of(textureName);
-                    String texturePath = "textures/" + textureIdentifier.getPath();
-                    String bedrockPath = ResourceHelper.javaToBedrockTexture(texturePath, "block");
-
-                    JsonObject thisTexture = new JsonObject();
-                    thisTexture.addProperty("textures", bedrockPath);
-                    textureDataObject.add(textureName, thisTexture);
-
-                    stateComponentBuilder.materialInstance(bedrockFaceName, MaterialInstance.builder()
-                            .renderMethod(renderMethod)
-                            .texture(textureName)
-                            .faceDimming(state.isOpaque())
-                            .ambientOcclusion(state.isOpaque())
-                            .build());
-
-                    try {
-                        ResourceHelper.copyResource(textureIdentifier.getNamespace(), texturePath + ".png", packRoot.resolve(bedrockPath + ".png"));
-                    } catch (Exception e) {
-                        LOGGER.error("Could not copy texture {}", textureIdentifier);
-                    }
-                }
+            states.put(stringifyState(state), new StateData(
+                    (360 - modelEntry.x()) % 360,
+                    (360 - modelEntry.y()) % 360,
+                    geometryIdentifier,
+                    materials,
+                    state.isOpaque(),
+                    BoxData.fromVoxelShape(state.getCollisionShape(EmptyBlockView.INSTANCE, BlockPos.ORIGIN)),
+                    BoxData.fromVoxelShape(state.getOutlineShape(EmptyBlockView.INSTANCE, BlockPos.ORIGIN)),
+                    state.getLuminance()
+            ));
+        }
 
-                stateComponentBuilder.collisionBox(voxelShapeToBoxComponent(state.getCollisionShape(EmptyBlockView.INSTANCE, BlockPos.ORIGIN)));
-                stateComponentBuilder.selectionBox(voxelShapeToBoxComponent(state.getOutlineShape(EmptyBlockView.INSTANCE, BlockPos.ORIGIN)));
-                stateComponentBuilder.lightEmission(state.getLuminance());
+        return new BlockUnit(states, textureData);
+    }
 
-                CustomBlockComponents stateComponents = stateComponentBuilder.build();
-                if (state.getProperties().isEmpty()) {
-                    builder.components(stateComponents);
-                    continue;
-                }
+    private CustomBlockComponents buildComponents(StateData stateData) {
+        CustomBlockComponents.Builder stateComponentBuilder = CustomBlockComponents.builder();
 
-                // Conditions
-                // Essentially telling Bedrock what components to activate when
-                List<String> conditions = new ArrayList<>();
-                for (Property<?> property : state.getProperties()) {
-                    String propertyValue = state.get(property).toString();
-                    if (property instanceof EnumProperty<?>) {
-                        propertyValue = "'" + propertyValue.toLowerCase() + "'";
-                    }
-
-                    conditions.add("q.block_property('%name%') == %value%"
-                            .replace("%name%", property.getName())
-                            .replace("%value%", propertyValue));
-                }
+        // Rotation
+        stateComponentBuilder.transformation(new TransformationComponent(stateData.rotationX(), stateData.rotationY(), 0));
+
+        // Geometry
+        stateComponentBuilder.geometry(GeometryComponent.builder().identifier(stateData.geometry()).build());
+
+        // Textures
+        stateData.materials().forEach((bedrockFaceName, textureName) ->
+                stateComponentBuilder.materialInstance(bedrockFaceName, MaterialInstance.builder()
+                        .renderMethod(RENDER_METHOD)
+                        .texture(textureName)
+                        .faceDimming(stateData.opaque())
+                        .ambientOcclusion(stateData.opaque())
+                        .build()));
+
+        stateComponentBuilder.collisionBox(BoxData.toComponent(stateData.collision()));
+        stateComponentBuilder.selectionBox(BoxData.toComponent(stateData.selection()));
+        stateComponentBuilder.lightEmission(stateData.light());
+        return stateComponentBuilder.build();
+    }
+
+    // Essentially telling Bedrock what components to activate when, states that look the same share a permutation
+    private BlockPermutations.Plan<StateData> getPermutations(String identifier) {
+        return permutationPlans.computeIfAbsent(identifier, key -> {
+            Map<String, StateData> states = registrations.get(key);
+            Block block = Registries.BLOCK.get(Identifier.of(key));
+            return BlockPermutations.plan(key, block.getStateManager().getStates(), block.getStateManager().getProperties(),
+                    state -> states.get(stringifyState(state)));
+        });
+    }
+
+    public void handle(GeyserDefineCustomBlocksEvent event) {
+        forEachBlock(timeRegistrations("block", (identifier, block) -> {
+            Map<String, StateData> states = registrations.get(identifier.toString());
+            if (states == null) return;
+
+            Block realBlock = Registries.BLOCK.get(identifier);
+
+            NonVanillaCustomBlockData.Builder builder = NonVanillaCustomBlockData.builder()
+                    .name(identifier.getPath())
+                    .namespace(identifier.getNamespace())
+                    .creativeGroup("itemGroup." + identifier.getNamespace() + ".blocks")
+                    .creativeCategory(CreativeCategory.CONSTRUCTION)
+                    .includedInCreativeInventory(true);
 
-                String stateCondition = String.join(" && ", conditions);
-                permutations.add(new CustomBlockPermutation(stateComponents, stateCondition));
+            // Properties, leaving out the ones that don't change how the block looks or behaves
+            BlockPermutations.Plan<StateData> plan = getPermutations(identifier.toString());
+            populateProperties(builder, plan.properties());
+
+            // Block states/permutations
+            if (plan.base() != null) {
+                builder.components(buildComponents(plan.base()));
+            }
+
+            List<CustomBlockPermutation> permutations = new ArrayList<>();
+            for (BlockPermutations.Permutation<StateData> permutation : plan.permutations()) {
+                permutations.add(new CustomBlockPermutation(buildComponents(permutation.data()), permutation.condition()));
             }
             builder.permutations(permutations);
 
             NonVanillaCustomBlockData data = builder.build();
             event.register(data);
 
-            // Registering the block states
+            // Registering the block states, Java states that only differ in left out properties share a Bedrock state
+            Map<List<Object>, CustomBlockState> customStates = new HashMap<>();
             for (BlockState state : realBlock.getStateManager().getStates()) {
-                CustomBlockState.Builder stateBuilder = data.blockStateBuilder();
-
-                for (Property<?> property : state.getProperties()) {
-                    switch (property) {
-                        case IntProperty intProperty ->
-                                stateBuilder.intProperty(property.getName(), state.get(intProperty));
-                        case BooleanProperty booleanProperty ->
-                                stateBuilder.booleanProperty(property.getName(), state.get(booleanProperty));
-                        case EnumProperty<?> enumProperty ->
-                                stateBuilder.stringProperty(enumProperty.getName(), state.get(enumProperty).toString().toLowerCase());
-                        default ->
-                                throw new IllegalArgumentException("Unknown property type: " + property.getClass().getName());
-                    }
-                }
-
-                CustomBlockState customBlockState = stateBuilder.build();
+                List<Object> values = plan.properties().stream().<Object>map(state::get).toList();
+                CustomBlockState customBlockState = customStates.computeIfAbsent(values, key -> buildCustomState(data, plan.properties(), state));
 
                 JavaBlockState.Builder builder1 = JavaBlockState.builder();
                 builder1.canBreakWithHand(state.isToolRequired());
@@ -333,21 +397,118 @@ public class BlockTranslator extends Translator {
                 }
                 event.registerOverride(builder1.build(), customBlockState);
             }
+        }));
+    }
+
+    private CustomBlockState buildCustomState(NonVanillaCustomBlockData data, List<Property<?>> properties, BlockState state) {
+        CustomBlockState.Builder stateBuilder = data.blockStateBuilder();
+        for (Property<?> property : properties) {
+            switch (property) {
+                case IntProperty intProperty ->
+                        stateBuilder.intProperty(property.getName(), state.get(intProperty));
+                case BooleanProperty booleanProperty ->
+                        stateBuilder.booleanProperty(property.getName(), state.get(booleanProperty));
+                case EnumProperty<?> enumProperty ->
+                        stateBuilder.stringProperty(enumProperty.getName(), state.get(enumProperty).toString().toLowerCase());
+                default ->
+                        throw new IllegalArgumentException("Unknown property type: " + property.getClass().getName());
+            }
+        }
+        return stateBuilder.build();
+    }
+
+    // handle overrides every state of a registered block, not just the ones with state data
+    @Override
+    public void populateRegistry(TranslationRegistry.Builder builder) {
+        registrations.keySet().forEach(identifier -> {
+            for (BlockState state : Registries.BLOCK.get(Identifier.of(identifier)).getStateManager().getStates()) {
+                builder.blockState(state);
+            }
+        });
+    }
+
+    // Mirrors what handle registers
+    @Override
+    public void report(PackReport report) {
+        registrations.keySet().forEach(identifier -> {
+            PackReport.Cost cost = report.getUnit("block/" + identifier);
+            BlockPermutations.Plan<StateData> plan = getPermutations(identifier);
+            cost.javaStates += Registries.BLOCK.get(Identifier.of(identifier)).getStateManager().getStates().size();
+            cost.bedrockStates += plan.getBedrockStateCount();
+            if (plan.base() != null) {
+                cost.materialInstances += plan.base().materials().size();
+            }
+
+            for (BlockPermutations.Permutation<StateData> permutation : plan.permutations()) {
+                cost.materialInstances += permutation.data().materials().size();
+                cost.permutations++;
+                cost.conditionLength += permutation.condition().length();
+            }
         });
+    }
 
-        terrainTextureObject.add("texture_data", textureDataObject);
-        writeJsonToFile(terrainTextureObject, textureDir.resolve("terrain_texture.json").toFile());
-        markResourcesProvided();
+    @Override
+    public void register(EventBus<EventRegistrar> eventBus, BooleanSupplier resourcesReady) {
+        eventBus.subscribe(this, GeyserDefineCustomBlocksEvent.class, event -> {
+            if (!resourcesReady.getAsBoolean()) return;
+            try (PhaseTimings.Phase ignored = PhaseTimings.current().start("register blocks")) {
+                handle(event);
+            }
+        });
     }
 
     @Override
-    public void register(EventBus<EventRegistrar> eventBus, Path packRoot) {
-        eventBus.subscribe(this, GeyserDefineCustomBlocksEvent.class, event -> handle(event, packRoot));
+    public void digestInputs(MessageDigest digest) {
+        blocks.keySet().stream().sorted().forEach(identifier -> HashHelper.update(digest, describeBlock(identifier)));
     }
 
-    record ModelData(@Nullable Identifier parent, Map<String, String> textures) {
-        public static ModelData fromJson(JsonObject object) {
-            return JsonHelper.GSON.fromJson(object, ModelData.class);
+    @Override
+    public JsonElement writeRegistrations() {
+        return JsonHelper.GSON.toJsonTree(registrations, REGISTRATIONS_TYPE);
+    }
+
+    @Override
+    public void readRegistrations(JsonElement registrations) {
+        this.registrations.clear();
+        permutationPlans.clear();
+        this.registrations.putAll(JsonHelper.GSON.fromJson(registrations, REGISTRATIONS_TYPE));
+    }
+
+    record BoxData(float originX, float originY, float originZ, float sizeX, float sizeY, float sizeZ) {
+        public static @Nullable BoxData fromVoxelShape(VoxelShape shape) {
+            if (shape.isEmpty()) {
+                return null;
+            }
+
+            Box box = shape.getBoundingBox();
+
+            float sizeX = (float) box.getLengthX() * 16;
+            float sizeY = (float) box.getLengthY() * 16;
+            float sizeZ = (float) box.getLengthZ() * 16;
+
+            Vec3d origin = box.getMinPos();
+            Vector3f originNormalized = origin.toVector3f();
+
+            return new BoxData(originNormalized.x() - 8, originNormalized.y(), originNormalized.z() - 8, sizeX, sizeY, sizeZ);
+        }
+
+        public static BoxComponent toComponent(@Nullable BoxData box) {
+            if (box == null) {
+                return BoxComponent.emptyBox();
+            }
+
+            return new BoxComponent(box.originX(), box.originY(), box.originZ(), box.sizeX(), box.sizeY(), box.sizeZ());
         }
     }
+
+    // What a block contributes to the pack besides its files, states is null if the block isn't registered at all
+    record BlockUnit(@Nullable Map<String, StateData> states, Map<String, String> textures) {
+
+    }
+
+    // Everything needed to build the components of a single state, without touching any assets
+    record StateData(int rotationX, int rotationY, String geometry, Map<String, String> materials, boolean opaque,
+                     @Nullable BoxData collision, @Nullable BoxData selection, int light) {
+
+    }
 }
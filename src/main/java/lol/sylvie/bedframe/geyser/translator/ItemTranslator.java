@@ -1,12 +1,21 @@
 package lol.sylvie.bedframe.geyser.translator;
 
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.reflect.TypeToken;
 import eu.pb4.polymer.core.api.item.PolymerItem;
 import eu.pb4.polymer.resourcepack.api.AssetPaths;
 import eu.pb4.polymer.resourcepack.extras.api.format.item.ItemAsset;
 import eu.pb4.polymer.resourcepack.extras.api.format.item.model.BasicItemModel;
+import lol.sylvie.bedframe.geyser.DependencyGraph;
+import lol.sylvie.bedframe.geyser.PackSink;
+import lol.sylvie.bedframe.geyser.TranslationRegistry;
 import lol.sylvie.bedframe.geyser.Translator;
 import lol.sylvie.bedframe.util.BedframeConstants;
+import lol.sylvie.bedframe.util.HashHelper;
+import lol.sylvie.bedframe.util.JsonHelper;
+import lol.sylvie.bedframe.util.ParallelHelper;
+import lol.sylvie.bedframe.util.PhaseTimings;
 import lol.sylvie.bedframe.util.ResourceHelper;
 import net.minecraft.component.ComponentMap;
 import net.minecraft.component.DataComponentTypes;
@@ -22,20 +31,26 @@ import org.geysermc.geyser.api.event.lifecycle.GeyserDefineCustomItemsEvent;
 import org.geysermc.geyser.api.item.custom.CustomItemOptions;
 import org.geysermc.geyser.api.item.custom.NonVanillaCustomItemData;
 import org.geysermc.geyser.api.util.CreativeCategory;
+import org.jetbrains.annotations.Nullable;
 import xyz.nucleoid.packettweaker.PacketContext;
 
-import java.nio.file.Path;
-import java.util.ArrayList;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Stream;
 
-import static lol.sylvie.bedframe.util.PathHelper.createDirectoryOrThrow;
 
 public class ItemTranslator extends Translator {
     private final HashMap<Identifier, PolymerItem> items = new HashMap<>();
-    private static final ArrayList<Item> registeredItems = new ArrayList<>();
+    private static final Type REGISTRATIONS_TYPE = new TypeToken<Map<String, ItemData>>() {}.getType();
+
+    // Item identifier -> item data
+    private final Map<String, ItemData> registrations = new ConcurrentHashMap<>();
 
     public ItemTranslator() {
         Stream<Identifier> itemIds = Registries.ITEM.getIds().stream();
@@ -50,35 +65,115 @@ public class ItemTranslator extends Translator {
 
     private void forEachItem(BiConsumer<Identifier, PolymerItem> function) {
         for (Map.Entry<Identifier, PolymerItem> entry : items.entrySet()) {
+            acceptItem(function, entry);
+        }
+    }
+
+    // Only for work that doesn't touch Geyser, see ParallelHelper
+    private void forEachItemParallel(BiConsumer<Identifier, PolymerItem> function) {
+        ParallelHelper.forEach(items.entrySet(), entry -> acceptItem(function, entry));
+    }
+
+    private void acceptItem(BiConsumer<Identifier, PolymerItem> function, Map.Entry<Identifier, PolymerItem> entry) {
+        try {
             function.accept(entry.getKey(), entry.getValue());
+        } catch (RuntimeException e) {
+            BedframeConstants.LOGGER.error("Couldn't load item {}", entry.getKey(), e);
         }
     }
 
-    public static boolean isTexturedItem(Item item) {
-        return registeredItems.contains(item);
+    // I know there is item.getPolymerItemModel but some developers (cough me cough) just override the itemstack model
+    private @Nullable Identifier getPolymerModel(Item realItem, PolymerItem item) {
+        ItemStack itemStack = item.getPolymerItemStack(realItem.getDefaultStack(), TooltipType.BASIC, PacketContext.get());
+        return itemStack.get(DataComponentTypes.ITEM_MODEL);
+    }
+
+    // Everything about an item that affects its translation, besides the assets it reads
+    private String describeItem(Identifier identifier) {
+        Item realItem = Registries.ITEM.get(identifier);
+        String description = identifier + "#" + Registries.ITEM.getRawId(realItem);
+        try {
+            return description + "|" + getPolymerModel(realItem, items.get(identifier));
+        } catch (RuntimeException e) {
+            return description + "|error";
+        }
     }
 
-    private void handle(GeyserDefineCustomItemsEvent event, Path packRoot) {
-        Path textureDir = createDirectoryOrThrow(packRoot.resolve("textures"));
-        createDirectoryOrThrow(textureDir.resolve("items"));
+    @Override
+    public void translate(PackSink sink, DependencyGraph graph) {
+        registrations.clear();
+        clearTranslations();
 
         JsonObject itemTextureObject = new JsonObject();
         itemTextureObject.addProperty("resource_pack_name", BedframeConstants.MOD_ID);
         itemTextureObject.addProperty("texture_name", "atlas.items");
 
-        JsonObject textureDataObject = new JsonObject();
+        Map<String, String> textureData = new ConcurrentHashMap<>();
 
-        forEachItem((identifier, item) -> {
+        forEachItemParallel((identifier, item) -> {
             Item realItem = Registries.ITEM.get(identifier);
-            ItemStack realDefaultItemStack = realItem.getDefaultStack();
-
-            // I know there is item.getPolymerItemModel but some developers (cough me cough) just override the itemstack model
-            ItemStack itemStack = item.getPolymerItemStack(realItem.getDefaultStack(), TooltipType.BASIC, PacketContext.get());
-            Identifier model = itemStack.get(DataComponentTypes.ITEM_MODEL);
+            Identifier model = getPolymerModel(realItem, item);
 
             // Check if the model is provided by a mod using the minecraft namespace
             if (model == null || (model.getNamespace().equals("minecraft") && !ResourceHelper.isModProvided(AssetPaths.itemModel(model)))) return;
 
+            if (!(realItem instanceof BlockItem)) {
+                // Item names
+                String bedrockKey = "item." + identifier + ".name";
+                addTranslationKey(bedrockKey, realItem.getTranslationKey());
+            }
+
+            String digest = HashHelper.sha256(describeItem(identifier).getBytes(StandardCharsets.UTF_8));
+            ItemUnit unit = translateUnit(graph, sink, "item/" + identifier, digest, ItemUnit.class,
+                    () -> translateItem(identifier, model, sink));
+
+            if (unit.item() != null) {
+                textureData.putAll(unit.textures());
+                registrations.put(identifier.toString(), unit.item());
+            }
+        });
+
+        itemTextureObject.add("texture_data", buildTextureData(textureData));
+        sink.writeJson("textures/item_texture.json", itemTextureObject);
+    }
+
+    private ItemUnit translateItem(Identifier identifier, Identifier model, PackSink sink) {
+        ItemAsset itemDescription = ResourceHelper.readJsonResource(AssetPaths.itemAsset(model), ItemAsset.class);
+        if (itemDescription == null || !(itemDescription.model() instanceof BasicItemModel basicItemModel))
+            return new ItemUnit(null, Map.of());
+
+        Identifier modelId = basicItemModel.model();
+        ResourceHelper.FlattenedModel modelObject = ResourceHelper.readModel(modelId);
+        if (modelObject == null)
+            return new ItemUnit(null, Map.of());
+
+        Identifier modelType = modelObject.parent();
+        String layer0 = modelObject.textures().get("layer0");
+        if (layer0 != null && modelType != null && (modelType.equals(BedframeConstants.GENERATED_IDENTIFIER) || modelType.equals(BedframeConstants.HANDHELD_IDENTIFIER))) {
+            boolean handheld = modelType.equals(BedframeConstants.HANDHELD_IDENTIFIER);
+
+            Identifier textureId = Identifier.of(layer0);
+
+            String texturePath = "textures/" + textureId.getPath();
+            String bedrockPath = ResourceHelper.javaToBedrockTexture(texturePath, "item");
+            String textureName = identifier.toString();
+
+            ResourceHelper.copyResource(textureId.getNamespace(), texturePath + ".png", sink, bedrockPath + ".png");
+
+            return new ItemUnit(new ItemData(textureName, handheld), Map.of(textureName, bedrockPath));
+        }
+
+        return new ItemUnit(new ItemData(null, false), Map.of());
+    }
+
+    private void handle(GeyserDefineCustomItemsEvent event) {
+        forEachItem(timeRegistrations("item", (identifier, item) -> {
+            ItemData itemData = registrations.get(identifier.toString());
+            if (itemData == null) return;
+
+            Item realItem = Registries.ITEM.get(identifier);
+            ItemStack realDefaultItemStack = realItem.getDefaultStack();
+
             CustomItemOptions.Builder itemOptions = CustomItemOptions.builder();
 
             String translated = Text.translatable(realItem.getTranslationKey()).getString();
@@ -132,53 +227,56 @@ public class ItemTranslator extends Translator {
                 itemBuilder.icon(""); // see CustomItemRegistryPopulatorMixin
                 itemBuilder.block(blockId);
                 //itemBuilder.translationString("tile." + blockId + ".name");
-            } else {
-                // Item names
-                String bedrockKey = "item." + identifier + ".name";
-                addTranslationKey(bedrockKey, realItem.getTranslationKey());
-                //itemBuilder.translationString(bedrockKey);
             }
 
-            ItemAsset itemDescription = ResourceHelper.readJsonResource(AssetPaths.itemAsset(model), ItemAsset.class);
-            if (itemDescription == null || !(itemDescription.model() instanceof BasicItemModel basicItemModel))
-                return;
-
-            Identifier modelId = basicItemModel.model();
-            JsonObject modelObject = ResourceHelper.readJsonResource(modelId.getNamespace(), "models/" + modelId.getPath() + ".json");
-            if (modelObject == null)
-                return;
+            if (itemData.icon() != null) {
+                itemBuilder.displayHandheld(itemData.handheld());
+                itemBuilder.icon(itemData.icon());
+            }
 
-            Identifier modelType = modelObject.has("parent") ? Identifier.of(modelObject.get("parent").getAsString()) : null;
-            if (modelType != null && (modelType.equals(BedframeConstants.GENERATED_IDENTIFIER) || modelType.equals(BedframeConstants.HANDHELD_IDENTIFIER))) {
-                boolean handheld = modelType.equals(BedframeConstants.HANDHELD_IDENTIFIER);
-                itemBuilder.displayHandheld(handheld);
+            event.register(itemBuilder.build());
+        }));
+    }
 
-                Identifier textureId = Identifier.of(modelObject.get("textures").getAsJsonObject().get("layer0").getAsString());
+    @Override
+    public void register(EventBus<EventRegistrar> eventBus, BooleanSupplier resourcesReady) {
+        eventBus.subscribe(this, GeyserDefineCustomItemsEvent.class, event -> {
+            if (!resourcesReady.getAsBoolean()) return;
+            try (PhaseTimings.Phase ignored = PhaseTimings.current().start("register items")) {
+                handle(event);
+            }
+        });
+    }
 
-                String texturePath = "textures/" + textureId.getPath();
-                String bedrockPath = ResourceHelper.javaToBedrockTexture(texturePath, "item");
-                String textureName = identifier.toString();
+    // Every item with registration data is registered by handle
+    @Override
+    public void populateRegistry(TranslationRegistry.Builder builder) {
+        registrations.keySet().forEach(identifier -> builder.item(Registries.ITEM.get(Identifier.of(identifier))));
+    }
 
-                JsonObject textureObject = new JsonObject();
-                textureObject.addProperty("textures", bedrockPath);
+    @Override
+    public void digestInputs(MessageDigest digest) {
+        items.keySet().stream().sorted().forEach(identifier -> HashHelper.update(digest, describeItem(identifier)));
+    }
 
-                textureDataObject.add(textureName, textureObject);
-                ResourceHelper.copyResource(textureId.getNamespace(), texturePath + ".png", packRoot.resolve(bedrockPath + ".png"));
+    @Override
+    public JsonElement writeRegistrations() {
+        return JsonHelper.GSON.toJsonTree(registrations, REGISTRATIONS_TYPE);
+    }
 
-                itemBuilder.icon(textureName);
-            }
+    @Override
+    public void readRegistrations(JsonElement registrations) {
+        this.registrations.clear();
+        this.registrations.putAll(JsonHelper.GSON.fromJson(registrations, REGISTRATIONS_TYPE));
+    }
 
-            registeredItems.add(realItem);
-            event.register(itemBuilder.build());
-        });
+    // What an item contributes to the pack besides its files, item is null if the item isn't registered at all
+    record ItemUnit(@Nullable ItemData item, Map<String, String> textures) {
 
-        itemTextureObject.add("texture_data", textureDataObject);
-        writeJsonToFile(itemTextureObject, textureDir.resolve("item_texture.json").toFile());
-        markResourcesProvided();
     }
 
-    @Override
-    public void register(EventBus<EventRegistrar> eventBus, Path packRoot) {
-        eventBus.subscribe(this, GeyserDefineCustomItemsEvent.class, event -> handle(event, packRoot));
+    // The icon is only present for generated/handheld models
+    record ItemData(@Nullable String icon, boolean handheld) {
+
     }
 }
@@ -1,65 +1,40 @@
 package lol.sylvie.bedframe.geyser.translator;
 
 import com.google.gson.*;
-import eu.pb4.polymer.resourcepack.api.AssetPaths;
-import lol.sylvie.bedframe.util.JsonHelper;
+import lol.sylvie.bedframe.geyser.PackSink;
+import lol.sylvie.bedframe.util.BedframeEvents;
+import lol.sylvie.bedframe.util.DependencyTracker;
+import lol.sylvie.bedframe.util.PhaseTimings;
 import lol.sylvie.bedframe.util.ResourceHelper;
 import net.minecraft.util.Identifier;
 import net.minecraft.util.Pair;
+import org.jetbrains.annotations.Nullable;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Writer;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static lol.sylvie.bedframe.util.BedframeConstants.LOGGER;
 
 public class JavaToBedrockGeometryTranslator {
-    public static ConversionResult convert(Identifier modelId, String outSubDir, Path packRoot) throws Exception {
-        JsonObject javaModel = loadModel(modelId);
-        if (javaModel == null)
+    public static ConversionResult convert(Identifier modelId, String outSubDir, PackSink sink) throws Exception {
+        ResourceHelper.FlattenedModel javaModel = ResourceHelper.readModel(modelId);
+        if (javaModel == null || javaModel.elements() == null)
             return null;
 
-        Map<String, String> textureRefMap = new HashMap<>();
-        JsonArray elements = resolveElements(javaModel, textureRefMap);
-
-        if (elements == null) {
-            return null;
-        }
+        Map<String, String> textureRefMap = javaModel.textures();
+        JsonArray elements = javaModel.elements();
 
-        JsonElement texturesElement = javaModel.get("textures");
-        Map<String, BufferedImage> textureMap = new HashMap<>();
-        if (texturesElement != null) {
-            JsonObject textures = texturesElement.getAsJsonObject();
-            for (Map.Entry<String, JsonElement> entry : textures.entrySet()) {
-                String path = resolvePathJson(textures, entry.getValue().getAsString());
-                Identifier textureId = Identifier.of(path);
-                InputStream textureData = ResourceHelper.getResource(AssetPaths.texture(textureId) + ".png");
-                if (textureData != null) {
-                    BufferedImage texture = ImageIO.read(textureData);
-                    textureMap.put(entry.getKey(), texture);
-                }
-            }
-        }
+        // Only the first texture decides the texture size of the geometry
+        ResourceHelper.TextureInfo texture = getFirstNonParticle(textureRefMap);
 
         String bedrockStringId = modelId.toString().replace(":", ".").replace("/", ".");
         String bedrockStringIdWithPrefix = "geometry." + bedrockStringId;
-        JsonObject bedrockGeo = buildBedrockGeometry(elements, textureMap, bedrockStringIdWithPrefix);
-        Path outputPath = packRoot.resolve("models/" + outSubDir + "/" + bedrockStringId + ".geo.json");
-        Path parent = outputPath.getParent();
-        if (parent != null) {
-            Files.createDirectories(parent);
-        }
-
-        try (Writer writer = Files.newBufferedWriter(outputPath)) {
-            JsonHelper.GSON.toJson(bedrockGeo, writer);
-        }
+        JsonObject bedrockGeo = buildBedrockGeometry(elements, texture == null ? 16 : texture.width(), texture == null ? 16 : texture.height(), bedrockStringIdWithPrefix);
+        sink.writeJson("models/" + outSubDir + "/" + bedrockStringId + ".geo.json", bedrockGeo);
 
         return new ConversionResult(bedrockStringIdWithPrefix, elements, textureRefMap);
     }
@@ -73,22 +48,9 @@ public class JavaToBedrockGeometryTranslator {
         return value;
     }
 
-    public static String resolvePathJson(JsonElement map, String key) {
-        if (!key.startsWith("#"))
-            return key;
-
-        String value = map.getAsJsonObject().get(key).getAsString();
-        while (value != null && value.startsWith("#")) {
-            String newKey = value.substring(1);
-            JsonElement obj = map.getAsJsonObject().get(newKey);
-            value = obj != null ? obj.getAsString() : null;
-        }
-        return value;
-    }
-
-    public static JsonObject buildBedrockGeometry(JsonArray elements, Map<String, BufferedImage> textureMap, String identifier) {
-        JsonArray bones = new JsonArray();
-        int unnamedCounter = 0;
+    public static JsonObject buildBedrockGeometry(JsonArray elements, int textureWidth, int textureHeight, String identifier) {
+        // Elements that rotate the same way share a bone, keyed by axis, angle and origin
+        Map<String, JsonObject> bones = new LinkedHashMap<>();
 
         for (JsonElement el : elements) {
             JsonObject element = el.getAsJsonObject();
@@ -167,67 +129,26 @@ public class JavaToBedrockGeometryTranslator {
 
             cube.addProperty("inflate", 0f);
 
-            //  bone wrapper for this cube.
-            JsonObject bone = new JsonObject();
-            bone.addProperty("name", "element_" + unnamedCounter++);
-
-            // Pivot & Rotation:
-            //    In bedrock geo:
-            //      - Pivot is in pixel units relative to (0,0,0) = center of bottom face.
-            //      - Java's rotation origin is in pixel units relative to corner.
-            //      => pivotBedrockX = rotOriginX – 8, pivotBedrockY = rotOriginY, pivotBedrockZ = rotOriginZ – 8.
-            JsonArray pivot = new JsonArray();
-            pivot.add(0f);
-            pivot.add(0f);
-            pivot.add(0f);
-
-            if (element.has("rotation")) {
-                JsonObject rot = element.getAsJsonObject("rotation");
-                JsonArray rotOrigin = rot.getAsJsonArray("origin");
-
-                float rOrigX = rotOrigin.get(0).getAsFloat();
-                float rOrigY = rotOrigin.get(1).getAsFloat();
-                float rOrigZ = rotOrigin.get(2).getAsFloat();
-
-                JsonArray bedrockPivot = new JsonArray();
-                bedrockPivot.add(rOrigX - 8.0f);
-                bedrockPivot.add(rOrigY);
-                bedrockPivot.add(rOrigZ - 8.0f);
-                bone.add("pivot", bedrockPivot);
-
-                String axis = rot.get("axis").getAsString();
-                float angle = (360 - rot.get("angle").getAsFloat()) % 360;
-                JsonArray rotation = new JsonArray();
-                rotation.add(axis.equals("x") ? angle : 0f);
-                rotation.add(axis.equals("y") ? angle : 0f);
-                rotation.add(axis.equals("z") ? angle : 0f);
-                bone.add("rotation", rotation);
-            } else {
-                bone.add("pivot", pivot);
-            }
-
-            // add the cube (maybe add all cubes here)
-            JsonArray cubes = new JsonArray();
-            cubes.add(cube);
-            bone.add("cubes", cubes);
-
-            // to support custom item models https://learn.microsoft.com/en-us/minecraft/creator/documents/addcustomitems?view=minecraft-bedrock-stable
-            bone.add("binding", new JsonPrimitive("q.item_slot_to_bone_name(context.item_slot)"));
-
-            bones.add(bone);
+            // Blockbench writes a rotation with angle 0 for most elements, those aren't rotated at all
+            JsonObject rotation = element.has("rotation") && element.getAsJsonObject("rotation").get("angle").getAsFloat() % 360 != 0
+                    ? element.getAsJsonObject("rotation") : null;
+            JsonObject bone = bones.computeIfAbsent(getRotationKey(rotation), key -> createBone("bone_" + bones.size(), rotation));
+            bone.getAsJsonArray("cubes").add(cube);
         }
 
+        JsonArray boneArray = new JsonArray();
+        bones.values().forEach(boneArray::add);
+
         // create json
         JsonObject description = new JsonObject();
         description.addProperty("identifier", identifier);
 
-        BufferedImage texture = getFirstNonParticle(textureMap);
-        description.add("texture_width", new JsonPrimitive(texture == null ? 16 : texture.getWidth()));
-        description.add("texture_height", new JsonPrimitive(texture == null ? 16 : texture.getHeight()));
+        description.add("texture_width", new JsonPrimitive(textureWidth));
+        description.add("texture_height", new JsonPrimitive(textureHeight));
 
         JsonObject geometry = new JsonObject();
         geometry.add("description", description);
-        geometry.add("bones", bones);
+        geometry.add("bones", boneArray);
 
         JsonArray geometryArray = new JsonArray();
         geometryArray.add(geometry);
@@ -239,55 +160,71 @@ public class JavaToBedrockGeometryTranslator {
         return result;
     }
 
-    private static BufferedImage getFirstNonParticle(Map<String, BufferedImage> obj) {
-        for (Map.Entry<String, BufferedImage> entry : obj.entrySet()) {
-            if (!entry.getKey().equals("particle") && !entry.getKey().startsWith("#")) {
-                return entry.getValue();
-            }
-        }
-        return null;
+    private static String getRotationKey(@Nullable JsonObject rotation) {
+        if (rotation == null) return "none";
+
+        JsonArray origin = rotation.getAsJsonArray("origin");
+        return rotation.get("axis").getAsString() + "|" + rotation.get("angle").getAsFloat() + "|"
+                + origin.get(0).getAsFloat() + "," + origin.get(1).getAsFloat() + "," + origin.get(2).getAsFloat();
     }
 
-    public static JsonArray resolveElements(JsonObject model, Map<String, String> textureRefMap) {
-        var map = model.getAsJsonObject("textures").asMap();
-        for (Map.Entry<String, JsonElement> entry : map.entrySet()) {
-            textureRefMap.put(entry.getKey(), entry.getValue().getAsString());
+    private static JsonObject createBone(String name, @Nullable JsonObject rot) {
+        JsonObject bone = new JsonObject();
+        bone.addProperty("name", name);
+
+        // Pivot & Rotation:
+        //    In bedrock geo:
+        //      - Pivot is in pixel units relative to (0,0,0) = center of bottom face.
+        //      - Java's rotation origin is in pixel units relative to corner.
+        //      => pivotBedrockX = rotOriginX – 8, pivotBedrockY = rotOriginY, pivotBedrockZ = rotOriginZ – 8.
+        if (rot != null) {
+            JsonArray rotOrigin = rot.getAsJsonArray("origin");
+
+            float rOrigX = rotOrigin.get(0).getAsFloat();
+            float rOrigY = rotOrigin.get(1).getAsFloat();
+            float rOrigZ = rotOrigin.get(2).getAsFloat();
+
+            JsonArray bedrockPivot = new JsonArray();
+            bedrockPivot.add(rOrigX - 8.0f);
+            bedrockPivot.add(rOrigY);
+            bedrockPivot.add(rOrigZ - 8.0f);
+            bone.add("pivot", bedrockPivot);
+
+            String axis = rot.get("axis").getAsString();
+            float angle = (360 - rot.get("angle").getAsFloat()) % 360;
+            JsonArray rotation = new JsonArray();
+            rotation.add(axis.equals("x") ? angle : 0f);
+            rotation.add(axis.equals("y") ? angle : 0f);
+            rotation.add(axis.equals("z") ? angle : 0f);
+            bone.add("rotation", rotation);
+        } else {
+            JsonArray pivot = new JsonArray();
+            pivot.add(0f);
+            pivot.add(0f);
+            pivot.add(0f);
+            bone.add("pivot", pivot);
         }
 
-        while (!model.has("elements")) {
-            if (!model.has("parent")) return null;
-
-            String parentStr = model.get("parent").getAsString();
-            Identifier parentId = Identifier.of(parentStr);
-            model = loadModel(parentId);
-
-            if (model == null) {
-                return null;
-            }
-
-            JsonObject modelTextureMap = model.getAsJsonObject("textures");
-            if (modelTextureMap != null) {
-                Map<String, JsonElement> map2 = modelTextureMap.asMap();
-                for (Map.Entry<String, JsonElement> entry : map2.entrySet()) {
-                    textureRefMap.put(entry.getKey(), entry.getValue().getAsString());
-                }
-            }
-        }
+        bone.add("cubes", new JsonArray());
 
-        return model.getAsJsonArray("elements");
+        // to support custom item models https://learn.microsoft.com/en-us/minecraft/creator/documents/addcustomitems?view=minecraft-bedrock-stable
+        bone.add("binding", new JsonPrimitive("q.item_slot_to_bone_name(context.item_slot)"));
+        return bone;
     }
 
-    public static JsonObject loadModel(Identifier id) {
-        String modelPath = AssetPaths.model(id) + ".json";
+    private static ResourceHelper.TextureInfo getFirstNonParticle(Map<String, String> textureRefMap) {
+        for (String key : textureRefMap.keySet()) {
+            if (key.equals("particle") || key.startsWith("#")) continue;
 
-        try (InputStream inputStream = ResourceHelper.getResource(modelPath)) {
-            if (inputStream == null)
-                return null;
+            String path = resolvePath(textureRefMap, key);
+            if (path == null) continue;
 
-            return JsonParser.parseReader(new InputStreamReader(inputStream)).getAsJsonObject();
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to load model: " + id, e);
+            ResourceHelper.TextureInfo texture = ResourceHelper.readTextureInfo(Identifier.of(path));
+            if (texture != null) {
+                return texture;
+            }
         }
+        return null;
     }
 
     public static List<Pair<String, String>> extractTextureFaceMap(JsonArray elements) {
@@ -317,4 +254,49 @@ public class JavaToBedrockGeometryTranslator {
                                    Map<String, String> textureReferenceMap) {
 
     }
+
+    /**
+     * Converts each model at most once per pack build, no matter how many block states share it
+     */
+    public static class Cache {
+        private final ConcurrentHashMap<Identifier, DependencyTracker.Tracked<ConversionResult>> results = new ConcurrentHashMap<>();
+        private final LongAdder hits = new LongAdder();
+        private final String outSubDir;
+        private final PackSink sink;
+
+        public Cache(String outSubDir, PackSink sink) {
+            this.outSubDir = outSubDir;
+            this.sink = sink;
+        }
+
+        // Failed conversions are remembered too, and only logged the first time
+        public @Nullable ConversionResult convert(Identifier modelId) {
+            if (results.containsKey(modelId)) {
+                hits.increment();
+            }
+
+            return DependencyTracker.memoize(results, modelId, id -> {
+                BedframeEvents.GeometryConversion event = new BedframeEvents.GeometryConversion();
+                event.model = id.toString();
+                event.namespace = id.getNamespace();
+                event.begin();
+                long start = System.nanoTime();
+                try {
+                    return JavaToBedrockGeometryTranslator.convert(id, outSubDir, sink);
+                } catch (Exception e) {
+                    LOGGER.error("Could not convert model: {}", id, e);
+                    return null;
+                } finally {
+                    PhaseTimings.current().addTime("models", id.toString(), System.nanoTime() - start);
+                    event.commit();
+                }
+            });
+        }
+
+        public void logStats(String name) {
+            long hitCount = hits.sum();
+            long total = hitCount + results.size();
+            LOGGER.info("Converted {} {} models, {} of {} lookups were cache hits ({}%)", results.size(), name, hitCount, total, total == 0 ? 0 : hitCount * 100 / total);
+        }
+    }
 }
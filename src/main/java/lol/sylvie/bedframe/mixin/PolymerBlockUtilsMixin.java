@@ -2,7 +2,8 @@ package lol.sylvie.bedframe.mixin;
 
 import eu.pb4.polymer.core.api.block.PolymerBlock;
 import eu.pb4.polymer.core.api.block.PolymerBlockUtils;
-import lol.sylvie.bedframe.util.GeyserHelper;
+import lol.sylvie.bedframe.geyser.PolymerBypass;
+import lol.sylvie.bedframe.util.BedrockPlayerHolder;
 import net.minecraft.block.BlockState;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
@@ -16,7 +17,16 @@ public class PolymerBlockUtilsMixin {
     // the actual block states rather than their Polymer representations
     @Inject(method = "getBlockStateSafely(Leu/pb4/polymer/core/api/block/PolymerBlock;Lnet/minecraft/block/BlockState;ILxyz/nucleoid/packettweaker/PacketContext;)Lnet/minecraft/block/BlockState;", at = @At("RETURN"), cancellable = true)
     private static void bedframe$tellPolymerToAbstain(PolymerBlock block, BlockState blockState, int maxDistance, PacketContext context, CallbackInfoReturnable<BlockState> cir) {
-        if (GeyserHelper.isBedrockPlayer(context.getPlayer())) {
+        if (PolymerBypass.sendsRealBlockStateSafely((BedrockPlayerHolder) context.getPlayer())) {
+            cir.setReturnValue(blockState);
+        }
+    }
+
+    // Chunk sections and block updates go through here for every state they contain, so this runs per state and not per section.
+    // Translated states are sent as they are, so Polymer doesn't have to resolve them just for the mixin above to undo it.
+    @Inject(method = "getPolymerBlockState(Lnet/minecraft/block/BlockState;Lxyz/nucleoid/packettweaker/PacketContext;)Lnet/minecraft/block/BlockState;", at = @At("HEAD"), cancellable = true)
+    private static void bedframe$skipTranslatedStates(BlockState blockState, PacketContext context, CallbackInfoReturnable<BlockState> cir) {
+        if (PolymerBypass.sendsRealBlockState(blockState, (BedrockPlayerHolder) context.getPlayer())) {
             cir.setReturnValue(blockState);
         }
     }
@@ -1,8 +1,8 @@
 package lol.sylvie.bedframe.mixin;
 
 import eu.pb4.polymer.core.api.item.PolymerItem;
-import lol.sylvie.bedframe.geyser.translator.ItemTranslator;
-import lol.sylvie.bedframe.util.GeyserHelper;
+import lol.sylvie.bedframe.geyser.PolymerBypass;
+import lol.sylvie.bedframe.util.BedrockPlayerHolder;
 import net.minecraft.item.Item;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
@@ -16,7 +16,7 @@ public interface PolymerItemMixin {
     // the actual items rather than their Polymer representations
     @Inject(method = "getPolymerReplacement(Lnet/minecraft/item/Item;Lxyz/nucleoid/packettweaker/PacketContext;)Lnet/minecraft/item/Item;", at = @At("RETURN"), cancellable = true)
     private void bedframe$tellPolymerToAbstain(Item item, PacketContext context, CallbackInfoReturnable<Item> cir) {
-        if (GeyserHelper.isBedrockPlayer(context.getPlayer()) && ItemTranslator.isTexturedItem(item))
+        if (PolymerBypass.sendsRealItem(item, (BedrockPlayerHolder) context.getPlayer()))
             cir.setReturnValue(item);
     }
 }
@@ -2,8 +2,8 @@ package lol.sylvie.bedframe.mixin;
 
 import eu.pb4.polymer.core.api.item.PolymerItem;
 import eu.pb4.polymer.core.api.item.PolymerItemUtils;
-import lol.sylvie.bedframe.geyser.translator.ItemTranslator;
-import lol.sylvie.bedframe.util.GeyserHelper;
+import lol.sylvie.bedframe.geyser.PolymerBypass;
+import lol.sylvie.bedframe.util.BedrockPlayerHolder;
 import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
 import org.spongepowered.asm.mixin.Mixin;
@@ -19,7 +19,7 @@ public class PolymerItemUtilsMixin {
     @Inject(method = "getItemSafely(Leu/pb4/polymer/core/api/item/PolymerItem;Lnet/minecraft/item/ItemStack;Lxyz/nucleoid/packettweaker/PacketContext;I)Leu/pb4/polymer/core/api/item/PolymerItemUtils$ItemWithMetadata;", at = @At("RETURN"), cancellable = true)
     private static void bedframe$tellPolymerToAbstain(PolymerItem item, ItemStack stack, PacketContext context, int maxDistance, CallbackInfoReturnable<PolymerItemUtils.ItemWithMetadata> cir) {
         Item realItem = stack.getItem();
-        if (GeyserHelper.isBedrockPlayer(context.getPlayer()) && ItemTranslator.isTexturedItem(realItem))
+        if (PolymerBypass.sendsRealItemStack(realItem, (BedrockPlayerHolder) context.getPlayer()))
             cir.setReturnValue(new PolymerItemUtils.ItemWithMetadata(realItem, item.getPolymerItemModel(stack, context)));
     }
 }
@@ -0,0 +1,25 @@
+package lol.sylvie.bedframe.mixin;
+
+import lol.sylvie.bedframe.util.BedrockPlayerHolder;
+import net.minecraft.server.network.ServerPlayerEntity;
+import org.geysermc.geyser.api.GeyserApi;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Unique;
+
+@Mixin(ServerPlayerEntity.class)
+public class ServerPlayerEntityMixin implements BedrockPlayerHolder {
+    // 0 until asked, then 1 for Java players and 2 for Bedrock players.
+    // Geyser's session exists before the player joins the server, so the answer never changes.
+    @Unique
+    private volatile byte bedframe$bedrock;
+
+    @Override
+    public boolean bedframe$isBedrockPlayer() {
+        byte bedrock = bedframe$bedrock;
+        if (bedrock == 0) {
+            bedrock = GeyserApi.api().isBedrockPlayer(((ServerPlayerEntity) (Object) this).getUuid()) ? (byte) 2 : (byte) 1;
+            bedframe$bedrock = bedrock;
+        }
+        return bedrock == 2;
+    }
+}
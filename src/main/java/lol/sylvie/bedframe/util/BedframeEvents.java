@@ -0,0 +1,76 @@
+package lol.sylvie.bedframe.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder events for pack generation and Geyser registration, they only cost something while a recording is running.
+ * Record with -XX:StartFlightRecording or jcmd and look under "Bedframe".
+ */
+public class BedframeEvents {
+    @Name("lol.sylvie.bedframe.Phase")
+    @Label("Phase")
+    @Category("Bedframe")
+    @Description("A phase of a pack build, see PhaseTimings")
+    public static class Phase extends Event {
+        @Label("Phase")
+        public String phase;
+    }
+
+    @Name("lol.sylvie.bedframe.UnitTranslation")
+    @Label("Unit Translation")
+    @Category("Bedframe")
+    @Description("Translating a block or an item that couldn't be reused from the previous build")
+    public static class UnitTranslation extends Event {
+        @Label("Unit")
+        public String unit;
+
+        @Label("Namespace")
+        public String namespace;
+    }
+
+    @Name("lol.sylvie.bedframe.GeometryConversion")
+    @Label("Geometry Conversion")
+    @Category("Bedframe")
+    @Description("Converting a Java model to Bedrock geometry")
+    public static class GeometryConversion extends Event {
+        @Label("Model")
+        public String model;
+
+        @Label("Namespace")
+        public String namespace;
+    }
+
+    @Name("lol.sylvie.bedframe.ResourceCopy")
+    @Label("Resource Copy")
+    @Category("Bedframe")
+    @Description("Reading an asset to copy it into the pack")
+    public static class ResourceCopy extends Event {
+        @Label("Path")
+        public String path;
+
+        @Label("Namespace")
+        public String namespace;
+
+        @Label("Bytes")
+        public long bytes;
+    }
+
+    @Name("lol.sylvie.bedframe.Registration")
+    @Label("Geyser Registration")
+    @Category("Bedframe")
+    @Description("Registering a custom block or item with Geyser")
+    public static class Registration extends Event {
+        @Label("Identifier")
+        public String identifier;
+
+        @Label("Namespace")
+        public String namespace;
+
+        @Label("Kind")
+        public String kind;
+    }
+}
@@ -0,0 +1,201 @@
+package lol.sylvie.bedframe.util;
+
+import lol.sylvie.bedframe.BedframeConfig;
+import org.geysermc.geyser.api.event.EventBus;
+import org.geysermc.geyser.api.event.EventRegistrar;
+import org.geysermc.geyser.api.event.bedrock.SessionDisconnectEvent;
+import org.geysermc.geyser.api.event.bedrock.SessionLoadResourcePacksEvent;
+import org.geysermc.geyser.api.event.bedrock.SessionLoginEvent;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static lol.sylvie.bedframe.util.BedframeConstants.LOGGER;
+
+/**
+ * Counters for what Bedframe costs while the server runs, shown by /bedframe stats and exported in Prometheus' text format.
+ * Counters are striped, so the network threads don't contend on them.
+ */
+public class BedframeMetrics {
+    // Set once from the config before any packets are sent, so benchmarks can load this class without Fabric
+    private static boolean enabled;
+    private static boolean timed;
+
+    public static final MixinMetric BLOCK_STATE = new MixinMetric("block_state");
+    public static final MixinMetric BLOCK_STATE_SAFELY = new MixinMetric("block_state_safely");
+    public static final MixinMetric ITEM = new MixinMetric("item");
+    public static final MixinMetric ITEM_STACK = new MixinMetric("item_stack");
+    private static final List<MixinMetric> MIXINS = List.of(BLOCK_STATE, BLOCK_STATE_SAFELY, ITEM, ITEM_STACK);
+
+    private static final LongAdder sessionsSeen = new LongAdder();
+    private static final LongAdder packRequests = new LongAdder();
+    private static final LongAdder packBytesServed = new LongAdder();
+    private static final LongAdder packDownloads = new LongAdder();
+    private static final LongAdder packDownloadNanos = new LongAdder();
+    // Connection -> when it was offered the packs
+    private static final Map<Object, Long> packOffers = new ConcurrentHashMap<>();
+
+    private static @Nullable ScheduledExecutorService exporter;
+
+    public static void configure(BedframeConfig config) {
+        enabled = config.metrics;
+        timed = config.metrics && config.metricsTiming;
+    }
+
+    /**
+     * Counts sessions and times how long they take from being offered the packs until they log in,
+     * which is mostly the download
+     */
+    public static void trackSessions(EventBus<EventRegistrar> eventBus, EventRegistrar owner) {
+        eventBus.subscribe(owner, SessionLoadResourcePacksEvent.class, event -> packOffers.put(event.connection(), System.nanoTime()));
+
+        eventBus.subscribe(owner, SessionLoginEvent.class, event -> {
+            sessionsSeen.increment();
+            Long offered = packOffers.remove(event.connection());
+            if (offered != null) {
+                packDownloads.increment();
+                packDownloadNanos.add(System.nanoTime() - offered);
+            }
+        });
+
+        eventBus.subscribe(owner, SessionDisconnectEvent.class, event -> packOffers.remove(event.connection()));
+    }
+
+    public static void packServed(long bytes) {
+        packRequests.increment();
+        packBytesServed.add(bytes);
+    }
+
+    public static String format() {
+        StringBuilder builder = new StringBuilder();
+        for (MixinMetric mixin : MIXINS) {
+            long calls = mixin.calls.sum();
+            builder.append(mixin.name).append(": ").append(calls).append(" calls, ").append(mixin.bypasses.sum()).append(" sent as is");
+            if (timed) {
+                builder.append(", ").append(mixin.nanos.sum() / 1_000_000).append(" ms (").append(calls == 0 ? 0 : mixin.nanos.sum() / calls).append(" ns per call)");
+            }
+            builder.append('\n');
+        }
+
+        long downloads = packDownloads.sum();
+        builder.append("Bedrock sessions: ").append(GeyserHelper.getBedrockSessionCount()).append(" online, ").append(sessionsSeen.sum()).append(" seen\n");
+        builder.append("Pack downloads: ").append(downloads).append(", ").append(downloads == 0 ? 0 : packDownloadNanos.sum() / downloads / 1_000_000).append(" ms on average\n");
+        builder.append("Hosted packs: ").append(packRequests.sum()).append(" requests, ").append(packBytesServed.sum()).append(" bytes served");
+        if (!enabled) {
+            builder.append("\nMixin metrics are disabled in the config");
+        }
+        return builder.toString();
+    }
+
+    public static String formatPrometheus() {
+        StringBuilder builder = new StringBuilder();
+        header(builder, "bedframe_mixin_calls_total", "counter", "Calls into Bedframe's Polymer mixins while Bedrock players were online");
+        MIXINS.forEach(mixin -> sample(builder, "bedframe_mixin_calls_total", mixin.name, mixin.calls.sum()));
+        header(builder, "bedframe_mixin_bypasses_total", "counter", "Mixin calls that sent the real block or item to a Bedrock player");
+        MIXINS.forEach(mixin -> sample(builder, "bedframe_mixin_bypasses_total", mixin.name, mixin.bypasses.sum()));
+        if (timed) {
+            header(builder, "bedframe_mixin_seconds_total", "counter", "Time spent in Bedframe's Polymer mixins");
+            MIXINS.forEach(mixin -> sample(builder, "bedframe_mixin_seconds_total", mixin.name, mixin.nanos.sum() / 1e9));
+        }
+
+        header(builder, "bedframe_bedrock_sessions", "gauge", "Bedrock players online");
+        sample(builder, "bedframe_bedrock_sessions", null, GeyserHelper.getBedrockSessionCount());
+        header(builder, "bedframe_bedrock_sessions_total", "counter", "Bedrock sessions that logged in");
+        sample(builder, "bedframe_bedrock_sessions_total", null, sessionsSeen.sum());
+        header(builder, "bedframe_pack_download_seconds", "summary", "Time from offering the packs to a session until it logs in");
+        sample(builder, "bedframe_pack_download_seconds_sum", null, packDownloadNanos.sum() / 1e9);
+        sample(builder, "bedframe_pack_download_seconds_count", null, packDownloads.sum());
+        header(builder, "bedframe_pack_requests_total", "counter", "Requests for hosted packs");
+        sample(builder, "bedframe_pack_requests_total", null, packRequests.sum());
+        header(builder, "bedframe_pack_served_bytes_total", "counter", "Bytes of hosted packs sent");
+        sample(builder, "bedframe_pack_served_bytes_total", null, packBytesServed.sum());
+        return builder.toString();
+    }
+
+    private static void header(StringBuilder builder, String name, String type, String help) {
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder builder, String name, @Nullable String mixin, Number value) {
+        builder.append(name);
+        if (mixin != null) builder.append("{mixin=\"").append(mixin).append("\"}");
+        builder.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Periodically writes the metrics to the file from the config, for something like node_exporter's textfile collector
+     */
+    public static synchronized void startExport(BedframeConfig config) {
+        if (config.metricsFile.isEmpty() || exporter != null) {
+            return;
+        }
+
+        Path file = Path.of(config.metricsFile).toAbsolutePath();
+        exporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Bedframe Metrics Export");
+            thread.setDaemon(true);
+            return thread;
+        });
+        exporter.scheduleAtFixedRate(() -> writeExport(file), 0, Math.max(1, config.metricsIntervalSeconds), TimeUnit.SECONDS);
+    }
+
+    public static synchronized void stopExport() {
+        if (exporter != null) {
+            exporter.shutdownNow();
+            exporter = null;
+        }
+    }
+
+    // Scrapers never see a half written file
+    private static void writeExport(Path file) {
+        try {
+            Files.createDirectories(file.getParent());
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temporary)) {
+                writer.write(formatPrometheus());
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("Couldn't write metrics to {}", file, e);
+        }
+    }
+
+    /**
+     * Calls into one mixin while Bedrock players are online, and how many of them sent the real block or item.
+     * Nothing is counted otherwise, so Java only servers keep the early return in GeyserHelper.
+     */
+    public static class MixinMetric {
+        private final String name;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder bypasses = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        private MixinMetric(String name) {
+            this.name = name;
+        }
+
+        public long start() {
+            return timed && GeyserHelper.hasBedrockPlayers() ? System.nanoTime() : 0;
+        }
+
+        public void end(long start, boolean bypassed) {
+            if (!enabled || !GeyserHelper.hasBedrockPlayers()) return;
+            calls.increment();
+            if (bypassed) bypasses.increment();
+            // 0 if the first Bedrock player joined in between
+            if (timed && start != 0) nanos.add(System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package lol.sylvie.bedframe.util;
+
+/**
+ * Implemented on ServerPlayerEntity, remembers whether the player joined through Geyser
+ */
+public interface BedrockPlayerHolder {
+    boolean bedframe$isBedrockPlayer();
+}
@@ -0,0 +1,82 @@
+package lol.sylvie.bedframe.util;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+/**
+ * Records which assets a piece of work reads and which pack entries it writes, per thread.
+ * Memoized results carry their dependencies along, so a cache hit counts the same as reading everything again.
+ */
+public class DependencyTracker {
+    private static final ThreadLocal<Dependencies> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Runs the action while recording its dependencies, which are also added to any enclosing tracker
+     */
+    public static Dependencies track(Runnable action) {
+        Dependencies previous = CURRENT.get();
+        Dependencies dependencies = new Dependencies(new TreeSet<>(), new TreeSet<>());
+        CURRENT.set(dependencies);
+        try {
+            action.run();
+        } finally {
+            CURRENT.set(previous);
+            if (previous != null) {
+                previous.addAll(dependencies);
+            }
+        }
+        return dependencies;
+    }
+
+    public static void addInput(String path) {
+        Dependencies dependencies = CURRENT.get();
+        if (dependencies != null) {
+            dependencies.inputs().add(path);
+        }
+    }
+
+    public static void addOutput(String path) {
+        Dependencies dependencies = CURRENT.get();
+        if (dependencies != null) {
+            dependencies.outputs().add(path);
+        }
+    }
+
+    /**
+     * Like {@link Map#computeIfAbsent}, but replays the dependencies of the original computation on a hit.
+     * Loaders may recurse into the same cache, in which case a value might be computed twice.
+     */
+    public static <K, V> @Nullable V memoize(Map<K, Tracked<V>> cache, K key, Function<K, V> loader) {
+        Tracked<V> cached = cache.get(key);
+        if (cached == null) {
+            Object[] value = new Object[1];
+            Dependencies dependencies = track(() -> value[0] = loader.apply(key));
+            @SuppressWarnings("unchecked")
+            Tracked<V> computed = new Tracked<>((V) value[0], dependencies);
+            cache.putIfAbsent(key, computed);
+            return computed.value();
+        }
+
+        Dependencies dependencies = CURRENT.get();
+        if (dependencies != null) {
+            dependencies.addAll(cached.dependencies());
+        }
+        return cached.value();
+    }
+
+    // Sorted, so anything built from them is stable
+    public record Dependencies(Set<String> inputs, Set<String> outputs) {
+        public void addAll(Dependencies other) {
+            inputs.addAll(other.inputs());
+            outputs.addAll(other.outputs());
+        }
+    }
+
+    public record Tracked<V>(@Nullable V value, Dependencies dependencies) {
+
+    }
+}
@@ -1,11 +1,50 @@
 package lol.sylvie.bedframe.util;
 
 import net.minecraft.server.network.ServerPlayerEntity;
-import org.geysermc.geyser.api.GeyserApi;
+import org.geysermc.geyser.api.event.EventBus;
+import org.geysermc.geyser.api.event.EventRegistrar;
+import org.geysermc.geyser.api.event.bedrock.SessionDisconnectEvent;
+import org.geysermc.geyser.api.event.bedrock.SessionLoginEvent;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class GeyserHelper {
+    private static final Set<Object> sessions = ConcurrentHashMap.newKeySet();
+    // Kept next to the set so the hot path only reads one int
+    private static final AtomicInteger sessionCount = new AtomicInteger();
+
+    /**
+     * Counts Bedrock sessions, so lookups can be skipped entirely while there are none
+     */
+    public static void trackSessions(EventBus<EventRegistrar> eventBus, EventRegistrar owner) {
+        eventBus.subscribe(owner, SessionLoginEvent.class, event -> sessionOpened(event.connection()));
+        eventBus.subscribe(owner, SessionDisconnectEvent.class, event -> sessionClosed(event.connection()));
+    }
+
+    static void sessionOpened(Object session) {
+        if (sessions.add(session)) sessionCount.incrementAndGet();
+    }
+
+    static void sessionClosed(Object session) {
+        if (sessions.remove(session)) sessionCount.decrementAndGet();
+    }
+
+    public static int getBedrockSessionCount() {
+        return sessionCount.get();
+    }
+
+    public static boolean hasBedrockPlayers() {
+        return sessionCount.get() > 0;
+    }
+
     public static boolean isBedrockPlayer(@Nullable ServerPlayerEntity player) {
-        return player != null && GeyserApi.api().isBedrockPlayer(player.getUuid());
+        return isBedrockPlayer((BedrockPlayerHolder) player);
+    }
+
+    public static boolean isBedrockPlayer(@Nullable BedrockPlayerHolder player) {
+        return player != null && hasBedrockPlayers() && player.bedframe$isBedrockPlayer();
     }
 }
@@ -0,0 +1,48 @@
+package lol.sylvie.bedframe.util;
+
+import lol.sylvie.bedframe.BedframeInitializer;
+
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+public class ParallelHelper {
+    // Shared by every build, idle workers time out on their own
+    private static ForkJoinPool pool;
+
+    public static int getParallelism() {
+        int threads = BedframeInitializer.CONFIG.translationThreads;
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Runs the action for every element on a work-stealing pool, or on the calling thread if parallel translation is disabled
+     */
+    public static <T> void forEach(Collection<T> elements, Consumer<T> action) {
+        if (!BedframeInitializer.CONFIG.parallelTranslation || elements.size() < 2) {
+            elements.forEach(action);
+            return;
+        }
+
+        getPool().submit(() -> elements.parallelStream().forEach(action)).join();
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            // Resources that aren't in Polymer's builder are loaded through the context class loader,
+            // which would be the system class loader on a plain pool thread
+            ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+            AtomicInteger threadCount = new AtomicInteger();
+            pool = new ForkJoinPool(getParallelism(), forkJoinPool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+                thread.setName("Bedframe Translator #" + threadCount.incrementAndGet());
+                thread.setContextClassLoader(classLoader);
+                thread.setDaemon(true);
+                return thread;
+            }, null, false);
+        }
+        return pool;
+    }
+}
@@ -0,0 +1,104 @@
+package lol.sylvie.bedframe.util;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static lol.sylvie.bedframe.util.BedframeConstants.LOGGER;
+
+/**
+ * Wall-clock time spent in each phase of a pack build, in the order the phases started.
+ * Phases that run more than once add up.
+ * Also sums up the time spent on single blocks, items and models, which overlap since those run in parallel.
+ */
+public class PhaseTimings {
+    private static volatile PhaseTimings current = new PhaseTimings();
+
+    private final Map<String, Long> nanos = Collections.synchronizedMap(new LinkedHashMap<>());
+    // Category -> key -> time, like "models" -> model id
+    private final Map<String, Map<String, LongAdder>> keyNanos = new ConcurrentHashMap<>();
+
+    /**
+     * Starts timing a new build, whatever runs from now on adds to it
+     */
+    public static PhaseTimings begin() {
+        PhaseTimings timings = new PhaseTimings();
+        current = timings;
+        return timings;
+    }
+
+    // The timings of the last build, Geyser registration adds to them too
+    public static PhaseTimings current() {
+        return current;
+    }
+
+    public Phase start(String name) {
+        nanos.putIfAbsent(name, 0L);
+        return new Phase(name);
+    }
+
+    public void addTime(String category, String key, long time) {
+        keyNanos.computeIfAbsent(category, ignored -> new ConcurrentHashMap<>())
+                .computeIfAbsent(key, ignored -> new LongAdder())
+                .add(time);
+    }
+
+    public Map<String, Long> getMillis() {
+        Map<String, Long> millis = new LinkedHashMap<>();
+        synchronized (nanos) {
+            nanos.forEach((name, time) -> millis.put(name, time / 1_000_000));
+        }
+        return millis;
+    }
+
+    /**
+     * @return the slowest keys of a category along with their time in microseconds, slowest first
+     */
+    public List<Map.Entry<String, Long>> getSlowest(String category, int count) {
+        return keyNanos.getOrDefault(category, Map.of()).entrySet().stream()
+                .map(entry -> Map.entry(entry.getKey(), entry.getValue().sum() / 1_000))
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(count)
+                .toList();
+    }
+
+    public void logSlowest(String category, int count) {
+        List<Map.Entry<String, Long>> slowest = getSlowest(category, count);
+        if (slowest.isEmpty()) {
+            return;
+        }
+
+        int width = slowest.stream().mapToInt(entry -> entry.getKey().length()).max().orElse(0);
+        LOGGER.info("Slowest {} of {}:", slowest.size(), category);
+        for (Map.Entry<String, Long> entry : slowest) {
+            LOGGER.info("  {} {} ms", String.format("%-" + width + "s", entry.getKey()), String.format("%8.2f", entry.getValue() / 1000.0));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getMillis().entrySet().stream()
+                .map(entry -> entry.getKey() + " " + entry.getValue() + " ms")
+                .collect(Collectors.joining(", "));
+    }
+
+    public class Phase implements AutoCloseable {
+        private final String name;
+        private final BedframeEvents.Phase event = new BedframeEvents.Phase();
+        private final long start;
+
+        private Phase(String name) {
+            this.name = name;
+            event.phase = name;
+            event.begin();
+            this.start = System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            nanos.merge(name, System.nanoTime() - start, Long::sum);
+            event.commit();
+        }
+    }
+}
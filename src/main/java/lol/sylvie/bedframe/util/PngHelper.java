@@ -0,0 +1,42 @@
+package lol.sylvie.bedframe.util;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+public class PngHelper {
+    public static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    /**
+     * Reads the IHDR chunk, which the PNG spec requires to come right after the signature.
+     * Only the first 26 bytes are ever read.
+     * @return the header, or null if the stream isn't a PNG
+     */
+    public static @Nullable Header readHeader(InputStream stream) throws IOException {
+        DataInputStream data = new DataInputStream(stream);
+        byte[] signature = new byte[SIGNATURE.length];
+        data.readFully(signature);
+        if (!Arrays.equals(signature, SIGNATURE)) {
+            return null;
+        }
+
+        int length = data.readInt();
+        int type = data.readInt();
+        if (type != 0x49484452 || length < 13) { // IHDR
+            return null;
+        }
+
+        int width = data.readInt();
+        int height = data.readInt();
+        int bitDepth = data.readUnsignedByte();
+        int colorType = data.readUnsignedByte();
+        return new Header(width, height, bitDepth, colorType);
+    }
+
+    public record Header(int width, int height, int bitDepth, int colorType) {
+
+    }
+}
@@ -0,0 +1,521 @@
+package lol.sylvie.bedframe.util;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Losslessly re-encodes PNGs: drops ancillary chunks, reduces 16-bit channels and color types where no information is lost,
+ * uses a palette when there are few enough colors and picks the smallest of several filter strategies.
+ * The result is decoded again and compared against the input, so anything it can't handle safely is returned untouched.
+ */
+public class PngOptimizer {
+    // Part of the cache path, bump it whenever the output of the optimizer changes
+    public static final int VERSION = 1;
+
+    private static final int COLOR_GRAY = 0;
+    private static final int COLOR_RGB = 2;
+    private static final int COLOR_PALETTE = 3;
+    private static final int COLOR_GRAY_ALPHA = 4;
+    private static final int COLOR_RGBA = 6;
+
+    public static byte[] optimize(byte[] png) {
+        try {
+            Image image = decode(png);
+            if (image == null) {
+                return png;
+            }
+
+            image = reduceDepth(image);
+
+            byte[] best = png;
+            for (byte[] candidate : encodeCandidates(image)) {
+                if (candidate.length < best.length) {
+                    best = candidate;
+                }
+            }
+
+            if (best != png && !image.equals(decode(best))) {
+                BedframeConstants.LOGGER.warn("PNG optimization wasn't lossless, keeping the original texture");
+                return png;
+            }
+
+            return best;
+        } catch (IOException | DataFormatException | RuntimeException e) {
+            // Whatever we couldn't read, Bedrock might still be able to
+            return png;
+        }
+    }
+
+    // Decoding
+
+    private static int channels(int colorType) {
+        return switch (colorType) {
+            case COLOR_GRAY, COLOR_PALETTE -> 1;
+            case COLOR_GRAY_ALPHA -> 2;
+            case COLOR_RGB -> 3;
+            case COLOR_RGBA -> 4;
+            default -> throw new IllegalArgumentException("Unknown color type " + colorType);
+        };
+    }
+
+    /**
+     * Decodes a non-interlaced PNG into RGBA samples, with low bit depths scaled to 8 bits the way decoders display them
+     * @return the image, or null if it uses a feature we don't handle
+     */
+    static @Nullable Image decode(byte[] png) throws IOException, DataFormatException {
+        ByteBuffer buffer = ByteBuffer.wrap(png);
+        byte[] signature = new byte[PngHelper.SIGNATURE.length];
+        buffer.get(signature);
+        if (!Arrays.equals(signature, PngHelper.SIGNATURE)) {
+            return null;
+        }
+
+        int width = 0, height = 0, bitDepth = 0, colorType = 0;
+        byte[] palette = null;
+        byte[] transparency = null;
+        ByteArrayOutputStream imageData = new ByteArrayOutputStream();
+        while (buffer.remaining() >= 12) {
+            int length = buffer.getInt();
+            byte[] typeBytes = new byte[4];
+            buffer.get(typeBytes);
+            String type = new String(typeBytes, StandardCharsets.US_ASCII);
+            byte[] data = new byte[length];
+            buffer.get(data);
+            buffer.getInt(); // CRC
+
+            switch (type) {
+                case "IHDR" -> {
+                    ByteBuffer header = ByteBuffer.wrap(data);
+                    width = header.getInt();
+                    height = header.getInt();
+                    bitDepth = header.get() & 0xFF;
+                    colorType = header.get() & 0xFF;
+                    header.get(); // compression, always deflate
+                    header.get(); // filter method, always adaptive
+                    if (header.get() != 0) {
+                        return null; // interlaced
+                    }
+                }
+                case "PLTE" -> palette = data;
+                case "tRNS" -> transparency = data;
+                case "IDAT" -> imageData.write(data);
+                default -> {}
+            }
+
+            if (type.equals("IEND")) break;
+        }
+
+        if (width <= 0 || height <= 0 || (colorType == COLOR_PALETTE && palette == null)) {
+            return null;
+        }
+
+        int channels = channels(colorType);
+        int rowBytes = (width * channels * bitDepth + 7) / 8;
+        int bytesPerPixel = Math.max(1, channels * bitDepth / 8);
+
+        Inflater inflater = new Inflater();
+        byte[] raw = new byte[height * (rowBytes + 1)];
+        try {
+            inflater.setInput(imageData.toByteArray());
+            int read = 0;
+            while (read < raw.length) {
+                int count = inflater.inflate(raw, read, raw.length - read);
+                if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    return null;
+                }
+                read += count;
+            }
+        } finally {
+            inflater.end();
+        }
+
+        boolean sixteenBit = bitDepth == 16;
+        int[] samples = new int[width * height * 4];
+        byte[] previous = new byte[rowBytes];
+        byte[] row = new byte[rowBytes];
+        for (int y = 0; y < height; y++) {
+            int offset = y * (rowBytes + 1);
+            System.arraycopy(raw, offset + 1, row, 0, rowBytes);
+            unfilter(raw[offset], row, previous, bytesPerPixel);
+
+            for (int x = 0; x < width; x++) {
+                int index = (y * width + x) * 4;
+                switch (colorType) {
+                    case COLOR_GRAY -> {
+                        int rawGray = readSample(row, x, bitDepth);
+                        int gray = scale(rawGray, bitDepth);
+                        samples[index] = samples[index + 1] = samples[index + 2] = gray;
+                        boolean transparent = transparency != null && transparency.length >= 2 && rawGray == readShort(transparency, 0);
+                        samples[index + 3] = transparent ? 0 : maxValue(sixteenBit);
+                    }
+                    case COLOR_RGB -> {
+                        for (int c = 0; c < 3; c++) {
+                            samples[index + c] = readSample(row, x * 3 + c, bitDepth);
+                        }
+                        boolean transparent = transparency != null && transparency.length >= 6
+                                && samples[index] == readShort(transparency, 0)
+                                && samples[index + 1] == readShort(transparency, 2)
+                                && samples[index + 2] == readShort(transparency, 4);
+                        samples[index + 3] = transparent ? 0 : maxValue(sixteenBit);
+                    }
+                    case COLOR_PALETTE -> {
+                        int paletteIndex = readSample(row, x, bitDepth);
+                        if (paletteIndex * 3 + 2 >= palette.length) {
+                            return null;
+                        }
+                        samples[index] = palette[paletteIndex * 3] & 0xFF;
+                        samples[index + 1] = palette[paletteIndex * 3 + 1] & 0xFF;
+                        samples[index + 2] = palette[paletteIndex * 3 + 2] & 0xFF;
+                        samples[index + 3] = transparency != null && paletteIndex < transparency.length ? transparency[paletteIndex] & 0xFF : 255;
+                    }
+                    case COLOR_GRAY_ALPHA -> {
+                        int gray = readSample(row, x * 2, bitDepth);
+                        samples[index] = samples[index + 1] = samples[index + 2] = gray;
+                        samples[index + 3] = readSample(row, x * 2 + 1, bitDepth);
+                    }
+                    case COLOR_RGBA -> {
+                        for (int c = 0; c < 4; c++) {
+                            samples[index + c] = readSample(row, x * 4 + c, bitDepth);
+                        }
+                    }
+                    default -> {
+                        return null;
+                    }
+                }
+            }
+
+            byte[] swap = previous;
+            previous = row;
+            row = swap;
+        }
+
+        return new Image(width, height, sixteenBit, samples);
+    }
+
+    private static int maxValue(boolean sixteenBit) {
+        return sixteenBit ? 0xFFFF : 0xFF;
+    }
+
+    private static int readShort(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
+
+    // Sample index counts samples, not pixels
+    private static int readSample(byte[] row, int sample, int bitDepth) {
+        return switch (bitDepth) {
+            case 16 -> readShort(row, sample * 2);
+            case 8 -> row[sample] & 0xFF;
+            default -> {
+                int bit = sample * bitDepth;
+                int shift = 8 - bitDepth - (bit % 8);
+                yield (row[bit / 8] >> shift) & ((1 << bitDepth) - 1);
+            }
+        };
+    }
+
+    // 1, 2 and 4 bit grays scale exactly, since 255 is divisible by 1, 3 and 15
+    private static int scale(int value, int bitDepth) {
+        return bitDepth >= 8 ? value : value * 255 / ((1 << bitDepth) - 1);
+    }
+
+    private static void unfilter(int filter, byte[] row, byte[] previous, int bytesPerPixel) {
+        for (int i = 0; i < row.length; i++) {
+            int left = i >= bytesPerPixel ? row[i - bytesPerPixel] & 0xFF : 0;
+            int up = previous[i] & 0xFF;
+            int upLeft = i >= bytesPerPixel ? previous[i - bytesPerPixel] & 0xFF : 0;
+            int value = row[i] & 0xFF;
+            row[i] = (byte) switch (filter) {
+                case 0 -> value;
+                case 1 -> value + left;
+                case 2 -> value + up;
+                case 3 -> value + ((left + up) >>> 1);
+                case 4 -> value + paeth(left, up, upLeft);
+                default -> throw new IllegalArgumentException("Unknown filter " + filter);
+            };
+        }
+    }
+
+    private static int paeth(int left, int up, int upLeft) {
+        int estimate = left + up - upLeft;
+        int distanceLeft = Math.abs(estimate - left);
+        int distanceUp = Math.abs(estimate - up);
+        int distanceUpLeft = Math.abs(estimate - upLeft);
+        if (distanceLeft <= distanceUp && distanceLeft <= distanceUpLeft) return left;
+        if (distanceUp <= distanceUpLeft) return up;
+        return upLeft;
+    }
+
+    // Reduction
+
+    // 16-bit samples whose two bytes are equal are exactly representable in 8 bits
+    private static Image reduceDepth(Image image) {
+        if (!image.sixteenBit()) {
+            return image;
+        }
+
+        for (int sample : image.samples()) {
+            if ((sample >> 8) != (sample & 0xFF)) {
+                return image;
+            }
+        }
+
+        int[] samples = new int[image.samples().length];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = image.samples()[i] >> 8;
+        }
+        return new Image(image.width(), image.height(), false, samples);
+    }
+
+    // Encoding
+
+    private static List<byte[]> encodeCandidates(Image image) throws IOException {
+        int[] samples = image.samples();
+        int max = maxValue(image.sixteenBit());
+        boolean gray = true;
+        boolean opaque = true;
+        for (int i = 0; i < samples.length; i += 4) {
+            gray &= samples[i] == samples[i + 1] && samples[i] == samples[i + 2];
+            opaque &= samples[i + 3] == max;
+        }
+
+        int colorType = gray ? (opaque ? COLOR_GRAY : COLOR_GRAY_ALPHA) : (opaque ? COLOR_RGB : COLOR_RGBA);
+        int bitDepth = image.sixteenBit() ? 16 : 8;
+
+        List<byte[]> candidates = new ArrayList<>();
+        byte[] scanlines = packScanlines(image, colorType, bitDepth, null);
+        int bytesPerPixel = channels(colorType) * bitDepth / 8;
+        candidates.add(writePng(image, colorType, bitDepth, null, null, filter(scanlines, image.height(), bytesPerPixel, false)));
+        candidates.add(writePng(image, colorType, bitDepth, null, null, filter(scanlines, image.height(), bytesPerPixel, true)));
+
+        if (!image.sixteenBit()) {
+            byte[] palettePng = encodePalette(image);
+            if (palettePng != null) {
+                candidates.add(palettePng);
+            }
+        }
+
+        return candidates;
+    }
+
+    private static @Nullable byte[] encodePalette(Image image) throws IOException {
+        int[] samples = image.samples();
+        LinkedHashSet<Integer> colors = new LinkedHashSet<>();
+        for (int i = 0; i < samples.length; i += 4) {
+            colors.add((samples[i] << 24) | (samples[i + 1] << 16) | (samples[i + 2] << 8) | samples[i + 3]);
+            if (colors.size() > 256) {
+                return null;
+            }
+        }
+
+        // Translucent entries first, so the tRNS chunk can stop at the last of them
+        List<Integer> palette = new ArrayList<>(colors);
+        palette.sort(Comparator.comparingInt(color -> (color & 0xFF) == 0xFF ? 1 : 0));
+
+        Map<Integer, Integer> indices = new HashMap<>();
+        byte[] plte = new byte[palette.size() * 3];
+        int translucent = 0;
+        for (int i = 0; i < palette.size(); i++) {
+            int color = palette.get(i);
+            indices.put(color, i);
+            plte[i * 3] = (byte) (color >>> 24);
+            plte[i * 3 + 1] = (byte) (color >>> 16);
+            plte[i * 3 + 2] = (byte) (color >>> 8);
+            if ((color & 0xFF) != 0xFF) {
+                translucent = i + 1;
+            }
+        }
+
+        byte[] trns = null;
+        if (translucent > 0) {
+            trns = new byte[translucent];
+            for (int i = 0; i < translucent; i++) {
+                trns[i] = (byte) palette.get(i).intValue();
+            }
+        }
+
+        int size = palette.size();
+        int bitDepth = size <= 2 ? 1 : size <= 4 ? 2 : size <= 16 ? 4 : 8;
+        byte[] scanlines = packScanlines(image, COLOR_PALETTE, bitDepth, indices);
+        // Filtering rarely helps indexed images, so only the unfiltered variant is tried
+        return writePng(image, COLOR_PALETTE, bitDepth, plte, trns, filter(scanlines, image.height(), 1, false));
+    }
+
+    // Unfiltered rows, without the filter type byte
+    private static byte[] packScanlines(Image image, int colorType, int bitDepth, @Nullable Map<Integer, Integer> paletteIndices) {
+        int channels = channels(colorType);
+        int rowBytes = (image.width() * channels * bitDepth + 7) / 8;
+        byte[] scanlines = new byte[rowBytes * image.height()];
+        int[] samples = image.samples();
+
+        for (int y = 0; y < image.height(); y++) {
+            int rowOffset = y * rowBytes;
+            for (int x = 0; x < image.width(); x++) {
+                int index = (y * image.width() + x) * 4;
+                if (colorType == COLOR_PALETTE) {
+                    int color = (samples[index] << 24) | (samples[index + 1] << 16) | (samples[index + 2] << 8) | samples[index + 3];
+                    int paletteIndex = Objects.requireNonNull(paletteIndices).get(color);
+                    int bit = x * bitDepth;
+                    scanlines[rowOffset + bit / 8] |= (byte) (paletteIndex << (8 - bitDepth - (bit % 8)));
+                    continue;
+                }
+
+                int[] pixel = switch (colorType) {
+                    case COLOR_GRAY -> new int[]{samples[index]};
+                    case COLOR_GRAY_ALPHA -> new int[]{samples[index], samples[index + 3]};
+                    case COLOR_RGB -> new int[]{samples[index], samples[index + 1], samples[index + 2]};
+                    default -> new int[]{samples[index], samples[index + 1], samples[index + 2], samples[index + 3]};
+                };
+
+                for (int c = 0; c < pixel.length; c++) {
+                    if (bitDepth == 16) {
+                        int offset = rowOffset + (x * channels + c) * 2;
+                        scanlines[offset] = (byte) (pixel[c] >> 8);
+                        scanlines[offset + 1] = (byte) pixel[c];
+                    } else {
+                        scanlines[rowOffset + x * channels + c] = (byte) pixel[c];
+                    }
+                }
+            }
+        }
+
+        return scanlines;
+    }
+
+    /**
+     * Prefixes every row with a filter type
+     * @param adaptive picks the filter with the lowest sum of absolute differences per row, otherwise no filtering is done
+     */
+    private static byte[] filter(byte[] scanlines, int height, int bytesPerPixel, boolean adaptive) {
+        int rowBytes = scanlines.length / height;
+        byte[] output = new byte[(rowBytes + 1) * height];
+        byte[] previous = new byte[rowBytes];
+        byte[] row = new byte[rowBytes];
+        byte[] candidate = new byte[rowBytes];
+        byte[] best = new byte[rowBytes];
+
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(scanlines, y * rowBytes, row, 0, rowBytes);
+
+            int bestFilter = 0;
+            System.arraycopy(row, 0, best, 0, rowBytes);
+            if (adaptive) {
+                long bestScore = Long.MAX_VALUE;
+                for (int filter = 0; filter <= 4; filter++) {
+                    long score = applyFilter(filter, row, previous, candidate, bytesPerPixel);
+                    if (score < bestScore) {
+                        bestScore = score;
+                        bestFilter = filter;
+                        System.arraycopy(candidate, 0, best, 0, rowBytes);
+                    }
+                }
+            }
+
+            int offset = y * (rowBytes + 1);
+            output[offset] = (byte) bestFilter;
+            System.arraycopy(best, 0, output, offset + 1, rowBytes);
+
+            byte[] swap = previous;
+            previous = row;
+            row = swap;
+        }
+
+        return output;
+    }
+
+    private static long applyFilter(int filter, byte[] row, byte[] previous, byte[] output, int bytesPerPixel) {
+        long score = 0;
+        for (int i = 0; i < row.length; i++) {
+            int left = i >= bytesPerPixel ? row[i - bytesPerPixel] & 0xFF : 0;
+            int up = previous[i] & 0xFF;
+            int upLeft = i >= bytesPerPixel ? previous[i - bytesPerPixel] & 0xFF : 0;
+            int value = row[i] & 0xFF;
+            byte filtered = (byte) switch (filter) {
+                case 0 -> value;
+                case 1 -> value - left;
+                case 2 -> value - up;
+                case 3 -> value - ((left + up) >>> 1);
+                default -> value - paeth(left, up, upLeft);
+            };
+            output[i] = filtered;
+            score += Math.abs(filtered);
+        }
+        return score;
+    }
+
+    private static byte[] writePng(Image image, int colorType, int bitDepth, @Nullable byte[] palette, @Nullable byte[] transparency, byte[] filtered) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        DataOutputStream stream = new DataOutputStream(output);
+        stream.write(PngHelper.SIGNATURE);
+
+        ByteBuffer header = ByteBuffer.allocate(13);
+        header.putInt(image.width());
+        header.putInt(image.height());
+        header.put((byte) bitDepth);
+        header.put((byte) colorType);
+        header.put((byte) 0); // deflate
+        header.put((byte) 0); // adaptive filtering
+        header.put((byte) 0); // not interlaced
+        writeChunk(stream, "IHDR", header.array());
+
+        if (palette != null) {
+            writeChunk(stream, "PLTE", palette);
+        }
+        if (transparency != null) {
+            writeChunk(stream, "tRNS", transparency);
+        }
+
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(filtered);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                compressed.write(buffer, 0, count);
+            }
+            writeChunk(stream, "IDAT", compressed.toByteArray());
+        } finally {
+            deflater.end();
+        }
+
+        writeChunk(stream, "IEND", new byte[0]);
+        return output.toByteArray();
+    }
+
+    private static void writeChunk(DataOutputStream stream, String type, byte[] data) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+
+        stream.writeInt(data.length);
+        stream.write(typeBytes);
+        stream.write(data);
+        stream.writeInt((int) crc.getValue());
+    }
+
+    // Samples are RGBA, in 16 bit when sixteenBit is set and 8 bit otherwise
+    record Image(int width, int height, boolean sixteenBit, int[] samples) {
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Image image && width == image.width && height == image.height
+                    && sixteenBit == image.sixteenBit && Arrays.equals(samples, image.samples);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(width, height, sixteenBit, Arrays.hashCode(samples));
+        }
+    }
+}
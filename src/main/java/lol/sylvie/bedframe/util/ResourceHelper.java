@@ -1,7 +1,12 @@
 package lol.sylvie.bedframe.util;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import eu.pb4.polymer.resourcepack.api.AssetPaths;
 import eu.pb4.polymer.resourcepack.api.ResourcePackBuilder;
+import lol.sylvie.bedframe.geyser.PackSink;
 import net.minecraft.util.Identifier;
 import org.jetbrains.annotations.Nullable;
 
@@ -10,21 +15,57 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.lang.reflect.Type;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ResourceHelper {
-    private static @Nullable ResourcePackBuilder RPBUILDER;
+    private static volatile @Nullable ResourcePackBuilder RPBUILDER;
+    private static volatile boolean polymerPackFinished;
+
+    // Parsed assets, only valid for a single pack build, see clearAssetCache
+    private static final Map<String, DependencyTracker.Tracked<JsonElement>> JSON_CACHE = new ConcurrentHashMap<>();
+    private static final Map<String, DependencyTracker.Tracked<Object>> TYPED_CACHE = new ConcurrentHashMap<>();
+    private static final Map<Identifier, DependencyTracker.Tracked<FlattenedModel>> MODEL_CACHE = new ConcurrentHashMap<>();
+    private static final Map<Identifier, DependencyTracker.Tracked<TextureInfo>> TEXTURE_CACHE = new ConcurrentHashMap<>();
+    private static final int MAX_PARENT_DEPTH = 32;
+    // Cached for every model in a parent chain that loops or is too deep, so none of them are used half resolved
+    private static final FlattenedModel INVALID_MODEL = new FlattenedModel(null, Map.of(), null);
 
     public static void setPolymerResourcePackBuilder(ResourcePackBuilder resourcePackBuilder) {
         RPBUILDER = resourcePackBuilder;
     }
 
+    // Polymer keeps adding to the builder until its own build is done, so it's only safe to read after that
+    public static void markPolymerResourcePackFinished() {
+        polymerPackFinished = true;
+    }
+
+    public static boolean isPolymerResourcePackFinished() {
+        return RPBUILDER != null && polymerPackFinished;
+    }
+
+    // Feeds every file Polymer knows about into the digest, in a stable order
+    public static void digestPolymerResources(MessageDigest digest) {
+        if (RPBUILDER == null) {
+            return;
+        }
+
+        TreeMap<String, byte[]> files = new TreeMap<>();
+        RPBUILDER.forEachFile(files::put);
+        files.forEach((path, data) -> {
+            HashHelper.update(digest, path);
+            digest.update(data);
+        });
+    }
+
     public static boolean isModProvided(String path) {
+        DependencyTracker.addInput(path);
         return RPBUILDER != null && RPBUILDER.getData(path) != null;
     }
 
     public static InputStream getResource(String path) {
+        DependencyTracker.addInput(path);
         if (RPBUILDER != null) {
             byte[] data = RPBUILDER.getData(path);
             if (data != null) {
@@ -43,42 +84,149 @@ public class ResourceHelper {
         return getResource(getResourcePath(namespace, path));
     }
 
-    public static void copyResource(String namespace, String path, Path destination) {
-        try {
-            if (Files.notExists(destination)) {
-                Path parentDir = destination.getParent();
-                if (parentDir != null) {
-                    Files.createDirectories(parentDir);
-                }
-                Files.copy(getResource(namespace, path), destination);
+    // Polymer already holds most assets as byte arrays, so this avoids copying them through a stream
+    public static @Nullable byte[] getResourceBytes(String path) {
+        DependencyTracker.addInput(path);
+        if (RPBUILDER != null) {
+            byte[] data = RPBUILDER.getData(path);
+            if (data != null) {
+                return data;
             }
-        } catch (IOException | NullPointerException e) {
-            throw new RuntimeException("Couldn't copy resource " + Identifier.of(namespace, path), e);
         }
+
+        try (InputStream stream = Thread.currentThread().getContextClassLoader().getResourceAsStream(path)) {
+            return stream == null ? null : stream.readAllBytes();
+        } catch (IOException e) {
+            throw new RuntimeException("Couldn't load resource " + path, e);
+        }
+    }
+
+    public static void copyResource(String namespace, String path, PackSink sink, String destination) {
+        // Only the first copy reads the source, but every caller depends on it
+        String source = getResourcePath(namespace, path);
+        DependencyTracker.addInput(source);
+        sink.write(destination, () -> {
+            BedframeEvents.ResourceCopy event = new BedframeEvents.ResourceCopy();
+            event.path = source;
+            event.namespace = namespace;
+            event.begin();
+            long start = System.nanoTime();
+
+            byte[] data = getResourceBytes(source);
+            if (data == null) {
+                throw new RuntimeException("Couldn't copy resource " + Identifier.of(namespace, path));
+            }
+
+            PhaseTimings.current().addTime("copies", source, System.nanoTime() - start);
+            event.bytes = data.length;
+            event.commit();
+            return data;
+        });
+    }
+
+    public static void clearAssetCache() {
+        JSON_CACHE.clear();
+        TYPED_CACHE.clear();
+        MODEL_CACHE.clear();
+        TEXTURE_CACHE.clear();
+    }
+
+    // Parsed once per build, the returned element is shared so don't modify it
+    public static @Nullable JsonElement readJsonTree(String path) {
+        return DependencyTracker.memoize(JSON_CACHE, path, key -> {
+            try (InputStream stream = getResource(key)) {
+                if (stream == null) {
+                    return null;
+                }
+
+                return JsonParser.parseReader(new InputStreamReader(stream));
+            } catch (IOException e) {
+                throw new RuntimeException("Couldn't load resource " + key, e);
+            }
+        });
     }
 
     public static JsonObject readJsonResource(String namespace, String path) {
-        try (InputStream stream = getResource(namespace, path)) {
-            if (stream == null) {
-                return null;
+        JsonElement element = readJsonTree(getResourcePath(namespace, path));
+        return element == null ? null : element.getAsJsonObject();
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> T readJsonResource(String path, Type t) {
+        return (T) DependencyTracker.memoize(TYPED_CACHE, path + "|" + t.getTypeName(), key -> {
+            JsonElement element = readJsonTree(path);
+            return element == null ? null : JsonHelper.GSON.fromJson(element, t);
+        });
+    }
+
+    /**
+     * Reads a model along with all of its parents, see {@link FlattenedModel}
+     */
+    public static @Nullable FlattenedModel readModel(Identifier id) {
+        FlattenedModel model = readModel(id, 0);
+        return model == INVALID_MODEL ? null : model;
+    }
+
+    // Flattening recurses into the same cache for the parents, which memoize allows
+    private static @Nullable FlattenedModel readModel(Identifier id, int depth) {
+        return DependencyTracker.memoize(MODEL_CACHE, id, key -> flattenModel(key, depth));
+    }
+
+    private static @Nullable FlattenedModel flattenModel(Identifier id, int depth) {
+        JsonElement element = readJsonTree(AssetPaths.model(id) + ".json");
+        if (element == null || !element.isJsonObject()) {
+            return null;
+        }
+
+        JsonObject model = element.getAsJsonObject();
+        Identifier parentId = model.has("parent") ? Identifier.of(model.get("parent").getAsString()) : null;
+        FlattenedModel parent = null;
+        if (parentId != null) {
+            if (depth >= MAX_PARENT_DEPTH) {
+                BedframeConstants.LOGGER.error("Model {} has too many parents, is there a loop?", id);
+                return INVALID_MODEL;
             }
 
-            return JsonHelper.GSON.fromJson(new InputStreamReader(stream), JsonObject.class);
-        } catch (IOException e) {
-            throw new RuntimeException("Couldn't load resource " + Identifier.of(namespace, path), e);
+            parent = readModel(parentId, depth + 1);
+            if (parent == INVALID_MODEL) {
+                return INVALID_MODEL;
+            }
+        }
+
+        // The model's own textures come first and override its parents'
+        Map<String, String> textures = new LinkedHashMap<>();
+        JsonObject ownTextures = model.getAsJsonObject("textures");
+        if (ownTextures != null) {
+            ownTextures.entrySet().forEach(entry -> textures.put(entry.getKey(), entry.getValue().getAsString()));
         }
+        if (parent != null) {
+            parent.textures().forEach(textures::putIfAbsent);
+        }
+
+        JsonArray elements = model.has("elements") ? model.getAsJsonArray("elements") : parent == null ? null : parent.elements();
+        return new FlattenedModel(parentId, Collections.unmodifiableMap(textures), elements);
     }
 
-    public static <T> T readJsonResource(String path, Type t) {
-        try (InputStream stream = getResource(path)) {
-            if (stream == null) {
+    /**
+     * Reads the size of a texture from its PNG header, without decoding any pixels
+     */
+    public static @Nullable TextureInfo readTextureInfo(Identifier textureId) {
+        return DependencyTracker.memoize(TEXTURE_CACHE, textureId, id -> {
+            String path = AssetPaths.texture(id) + ".png";
+            PngHelper.Header header;
+            try (InputStream stream = getResource(path)) {
+                if (stream == null) {
+                    return null;
+                }
+
+                header = PngHelper.readHeader(stream);
+            } catch (IOException e) {
+                BedframeConstants.LOGGER.warn("Couldn't read texture header {}", id, e);
                 return null;
             }
 
-            return JsonHelper.GSON.fromJson(new InputStreamReader(stream), t);
-        } catch (IOException e) {
-            throw new RuntimeException("Couldn't load resource " + path, e);
-        }
+            return header == null ? null : new TextureInfo(header.width(), header.height());
+        });
     }
 
     public static String javaToBedrockTexture(String javaPath, String defaultPrefix) {
@@ -88,4 +236,18 @@ public class ResourceHelper {
 
         return javaPath.replaceFirst("block", "blocks").replaceFirst("item", "items");
     }
+
+    public record TextureInfo(int width, int height) {
+
+    }
+
+    /**
+     * A model with its whole parent chain resolved
+     * @param parent the direct parent of the model
+     * @param textures texture variables of the model and all of its parents
+     * @param elements the elements of the model, or those of the closest parent that has any
+     */
+    public record FlattenedModel(@Nullable Identifier parent, Map<String, String> textures, @Nullable JsonArray elements) {
+
+    }
 }
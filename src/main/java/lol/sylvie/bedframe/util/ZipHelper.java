@@ -1,36 +1,95 @@
 package lol.sylvie.bedframe.util;
 
-import org.jetbrains.annotations.NotNull;
-
 import java.io.*;
-import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
 public class ZipHelper {
-    // https://stackoverflow.com/questions/57997257/how-can-i-zip-a-complete-directory-with-all-subfolders-in-java
-    public static void zipFolder(Path source, File destination) {
-        try {
-            String parentDir = destination.getParent();
-            if (parentDir != null) {
-                Files.createDirectories(Path.of(parentDir));
+    // The earliest time a zip entry can hold, so every entry gets the same timestamp regardless of time zone
+    private static final LocalDateTime ENTRY_TIME = LocalDateTime.of(1980, 1, 1, 0, 0);
+    // Deflating these again only wastes time
+    private static final Set<String> STORED_EXTENSIONS = Set.of("png", "jpg", "jpeg", "ogg");
+
+    private static boolean isCompressed(String path) {
+        int dot = path.lastIndexOf('.');
+        return dot != -1 && STORED_EXTENSIONS.contains(path.substring(dot + 1).toLowerCase());
+    }
+
+    /**
+     * Writes the entries in one sequential pass, in path order and with fixed timestamps,
+     * so identical entries always produce a byte-identical archive
+     */
+    public static void zipEntries(SortedMap<String, byte[]> entries, Path destination, int compressionLevel) throws IOException {
+        write(destination, zipEntries(entries, compressionLevel));
+    }
+
+    // Same as above, but in memory, so the size is known before anything is written
+    public static byte[] zipEntries(SortedMap<String, byte[]> entries, int compressionLevel) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(output)) {
+            zos.setLevel(compressionLevel);
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                byte[] data = entry.getValue();
+
+                ZipEntry zipEntry = new ZipEntry(entry.getKey());
+                zipEntry.setTimeLocal(ENTRY_TIME);
+                if (isCompressed(entry.getKey())) {
+                    CRC32 crc = new CRC32();
+                    crc.update(data);
+
+                    zipEntry.setMethod(ZipEntry.STORED);
+                    zipEntry.setSize(data.length);
+                    zipEntry.setCompressedSize(data.length);
+                    zipEntry.setCrc(crc.getValue());
+                } else {
+                    zipEntry.setMethod(ZipEntry.DEFLATED);
+                }
+
+                zos.putNextEntry(zipEntry);
+                zos.write(data);
+                zos.closeEntry();
             }
+        }
+        return output.toByteArray();
+    }
+
+    public static void write(Path destination, byte[] data) throws IOException {
+        Path parentDir = destination.toAbsolutePath().getParent();
+        if (parentDir != null) {
+            Files.createDirectories(parentDir);
+        }
 
-            ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(destination));
-            Files.walkFileTree(source, new SimpleFileVisitor<>() {
-                @Override
-                public @NotNull FileVisitResult visitFile(@NotNull Path file, @NotNull BasicFileAttributes attrs) throws IOException {
-                    zos.putNextEntry(new ZipEntry(source.relativize(file).toString()));
-                    Files.copy(file, zos);
-                    zos.closeEntry();
-                    return FileVisitResult.CONTINUE;
+        // Write next to the destination first, so a crash never leaves a half written pack behind
+        Path temporary = Files.createTempFile(parentDir, destination.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temporary, data);
+            Files.move(temporary, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    // Directories are skipped
+    public static SortedMap<String, byte[]> readEntries(Path source) throws IOException {
+        SortedMap<String, byte[]> entries = new TreeMap<>();
+        try (ZipInputStream zis = new ZipInputStream(new BufferedInputStream(Files.newInputStream(source)))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                if (!entry.isDirectory()) {
+                    entries.put(entry.getName(), zis.readAllBytes());
                 }
-            });
-            zos.close();
-        } catch (IOException e) { BedframeConstants.LOGGER.error("Couldn't zip resource pack", e); }
+            }
+        }
+        return entries;
     }
 }
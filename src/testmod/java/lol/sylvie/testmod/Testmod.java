@@ -3,6 +3,8 @@ package lol.sylvie.testmod;
 import eu.pb4.polymer.resourcepack.api.PolymerResourcePackUtils;
 import lol.sylvie.testmod.block.ModBlocks;
 import lol.sylvie.testmod.item.ModItems;
+import lol.sylvie.testmod.synthetic.ScalingHarness;
+import lol.sylvie.testmod.synthetic.SyntheticContent;
 import net.fabricmc.api.ModInitializer;
 
 import org.slf4j.Logger;
@@ -16,6 +18,8 @@ public class Testmod implements ModInitializer {
 	public void onInitialize() {
 		ModBlocks.initialize();
 		ModItems.initialize();
+		SyntheticContent.initialize();
+		ScalingHarness.initialize();
 
 		PolymerResourcePackUtils.addModAssets(MOD_ID);
 		LOGGER.info("Hello Fabric world!");
@@ -0,0 +1,95 @@
+package lol.sylvie.testmod.synthetic;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import lol.sylvie.bedframe.BedframeInitializer;
+import lol.sylvie.bedframe.geyser.TranslationManager;
+import lol.sylvie.testmod.Testmod;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.minecraft.server.MinecraftServer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Times a pack generation with the synthetic content, writes the results and stops the server.
+ * Enabled by setting bedframe.harness.output to the file the results go to, see the scalingBenchmark task.
+ */
+public class ScalingHarness {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final String OUTPUT = System.getProperty("bedframe.harness.output");
+
+    private static long heapBefore;
+
+    public static void initialize() {
+        if (OUTPUT == null) {
+            return;
+        }
+
+        ServerLifecycleEvents.SERVER_STARTING.register(server -> {
+            System.gc();
+            heapBefore = 0;
+            for (MemoryPoolMXBean pool : getHeapPools()) {
+                heapBefore += pool.getUsage().getUsed();
+                pool.resetPeakUsage();
+            }
+        });
+
+        ServerLifecycleEvents.SERVER_STARTED.register(server -> {
+            Thread thread = new Thread(() -> run(server), "Bedframe Scaling Harness");
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    private static Iterable<MemoryPoolMXBean> getHeapPools() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream().filter(pool -> pool.getType() == MemoryType.HEAP).toList();
+    }
+
+    private static void run(MinecraftServer server) {
+        try {
+            TranslationManager manager = BedframeInitializer.getTranslationManager();
+            if (manager == null) {
+                throw new IllegalStateException("Bedframe didn't start");
+            }
+
+            boolean success = manager.startGeneration().join();
+
+            // Peaks add up per pool, which slightly overestimates the real peak
+            long peakHeap = 0;
+            for (MemoryPoolMXBean pool : getHeapPools()) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+
+            JsonObject results = new JsonObject();
+            results.addProperty("success", success);
+            results.addProperty("states", SyntheticContent.STATES);
+            results.addProperty("cardinality", SyntheticContent.CARDINALITY);
+            results.addProperty("models", SyntheticContent.MODELS);
+            results.addProperty("elements", SyntheticContent.ELEMENTS);
+            results.addProperty("textureSize", SyntheticContent.TEXTURE_SIZE);
+            results.addProperty("items", SyntheticContent.ITEMS);
+            results.add("phaseMillis", GSON.toJsonTree(manager.getLastTimings().getMillis()));
+            results.addProperty("totalMillis", manager.getLastTimings().getMillis().values().stream().mapToLong(Long::longValue).sum());
+            results.addProperty("heapBeforeBytes", heapBefore);
+            results.addProperty("peakHeapBytes", peakHeap);
+
+            Path output = Path.of(OUTPUT).toAbsolutePath();
+            Files.createDirectories(output.getParent());
+            try (Writer writer = Files.newBufferedWriter(output)) {
+                GSON.toJson(results, writer);
+            }
+            Testmod.LOGGER.info("Wrote scaling results to {}", output);
+        } catch (IOException | RuntimeException e) {
+            Testmod.LOGGER.error("Scaling harness failed", e);
+        } finally {
+            server.execute(() -> server.stop(false));
+        }
+    }
+}
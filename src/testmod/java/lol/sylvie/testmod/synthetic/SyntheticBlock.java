@@ -0,0 +1,35 @@
+package lol.sylvie.testmod.synthetic;
+
+import eu.pb4.polymer.blocks.api.PolymerTexturedBlock;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.state.StateManager;
+import net.minecraft.state.property.IntProperty;
+import xyz.nucleoid.packettweaker.PacketContext;
+
+import java.util.HashMap;
+
+public class SyntheticBlock extends Block implements PolymerTexturedBlock {
+    // Properties are added before the constructor runs, so every synthetic block has the same ones
+    private static final IntProperty VARIANT = SyntheticContent.CARDINALITY > 1 ? IntProperty.of("variant", 0, SyntheticContent.CARDINALITY - 1) : null;
+
+    private final HashMap<BlockState, BlockState> polymerBlockStates = new HashMap<>();
+
+    public SyntheticBlock(Settings settings, int firstState) {
+        super(settings);
+        for (BlockState state : this.getStateManager().getStates()) {
+            int index = firstState + (VARIANT == null ? 0 : state.get(VARIANT));
+            polymerBlockStates.put(state, SyntheticContent.getPolymerState(index % SyntheticContent.MODELS));
+        }
+    }
+
+    @Override
+    protected void appendProperties(StateManager.Builder<Block, BlockState> builder) {
+        if (VARIANT != null) builder.add(VARIANT);
+    }
+
+    @Override
+    public BlockState getPolymerBlockState(BlockState state, PacketContext context) {
+        return polymerBlockStates.get(state);
+    }
+}
@@ -0,0 +1,201 @@
+package lol.sylvie.testmod.synthetic;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import eu.pb4.polymer.blocks.api.BlockModelType;
+import eu.pb4.polymer.blocks.api.PolymerBlockModel;
+import eu.pb4.polymer.blocks.api.PolymerBlockResourceUtils;
+import eu.pb4.polymer.core.api.item.SimplePolymerItem;
+import eu.pb4.polymer.resourcepack.api.PolymerResourcePackUtils;
+import eu.pb4.polymer.resourcepack.api.ResourcePackBuilder;
+import lol.sylvie.testmod.Testmod;
+import net.minecraft.block.AbstractBlock;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.item.Item;
+import net.minecraft.item.Items;
+import net.minecraft.registry.Registries;
+import net.minecraft.registry.Registry;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.registry.RegistryKeys;
+import net.minecraft.util.Identifier;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Registers lots of generated blocks and items, to see how Bedframe scales. Configured with system properties:
+ * <ul>
+ *     <li>bedframe.synthetic.states: how many block states to register, nothing is registered if this is 0</li>
+ *     <li>bedframe.synthetic.cardinality: states per block (default 4)</li>
+ *     <li>bedframe.synthetic.models: different models the states are spread over (default 256)</li>
+ *     <li>bedframe.synthetic.elements: elements per model (default 4)</li>
+ *     <li>bedframe.synthetic.textureSize: texture width and height in pixels (default 16)</li>
+ *     <li>bedframe.synthetic.items: items to register (default a tenth of the states)</li>
+ * </ul>
+ * Polymer only has a few thousand block states to hand out, so states share models past that.
+ */
+public class SyntheticContent {
+    public static final int STATES = Integer.getInteger("bedframe.synthetic.states", 0);
+    public static final int CARDINALITY = Math.max(1, Integer.getInteger("bedframe.synthetic.cardinality", 4));
+    public static final int MODELS = Math.max(1, Math.min(STATES, Integer.getInteger("bedframe.synthetic.models", 256)));
+    public static final int ELEMENTS = Math.max(1, Integer.getInteger("bedframe.synthetic.elements", 4));
+    public static final int TEXTURE_SIZE = Math.max(1, Integer.getInteger("bedframe.synthetic.textureSize", 16));
+    public static final int ITEMS = Integer.getInteger("bedframe.synthetic.items", STATES / 10);
+
+    // Model index -> the Polymer state that displays it
+    private static final Map<Integer, BlockState> polymerStates = new HashMap<>();
+
+    public static boolean isEnabled() {
+        return STATES > 0;
+    }
+
+    static BlockState getPolymerState(int model) {
+        return polymerStates.computeIfAbsent(model, key -> {
+            // Turned differently per model, so rotations get translated too
+            BlockState state = PolymerBlockResourceUtils.requestBlock(BlockModelType.FULL_BLOCK, PolymerBlockModel.of(modelId(key), 0, (key % 4) * 90));
+            if (state == null) {
+                throw new IllegalStateException("Polymer ran out of block states after " + key + " models, lower bedframe.synthetic.models");
+            }
+            return state;
+        });
+    }
+
+    private static Identifier modelId(int model) {
+        return Identifier.of(Testmod.MOD_ID, "block/synthetic_" + model);
+    }
+
+    public static void initialize() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        int blocks = (STATES + CARDINALITY - 1) / CARDINALITY;
+        for (int i = 0; i < blocks; i++) {
+            int firstState = i * CARDINALITY;
+            RegistryKey<Block> key = RegistryKey.of(RegistryKeys.BLOCK, Identifier.of(Testmod.MOD_ID, "synthetic_block_" + i));
+            Registry.register(Registries.BLOCK, key, new SyntheticBlock(AbstractBlock.Settings.create().registryKey(key), firstState));
+        }
+
+        for (int i = 0; i < ITEMS; i++) {
+            RegistryKey<Item> key = RegistryKey.of(RegistryKeys.ITEM, Identifier.of(Testmod.MOD_ID, "synthetic_item_" + i));
+            Registry.register(Registries.ITEM, key, new SimplePolymerItem(new Item.Settings().registryKey(key), Items.PAPER));
+        }
+
+        PolymerResourcePackUtils.RESOURCE_PACK_CREATION_EVENT.register(SyntheticContent::addAssets);
+        Testmod.LOGGER.info("Registered {} synthetic blocks ({} states, {} models) and {} items", blocks, STATES, MODELS, ITEMS);
+    }
+
+    private static void addAssets(ResourcePackBuilder builder) {
+        String assets = "assets/" + Testmod.MOD_ID + "/";
+        for (int i = 0; i < MODELS; i++) {
+            builder.addData(assets + "models/block/synthetic_" + i + ".json", json(blockModel(i)));
+            builder.addData(assets + "textures/block/synthetic_" + i + ".png", texture(i));
+        }
+
+        int itemTextures = Math.min(ITEMS, MODELS);
+        for (int i = 0; i < itemTextures; i++) {
+            builder.addData(assets + "textures/item/synthetic_item_" + i + ".png", texture(-1 - i));
+        }
+
+        for (int i = 0; i < ITEMS; i++) {
+            JsonObject model = new JsonObject();
+            model.addProperty("parent", "minecraft:item/generated");
+            JsonObject textures = new JsonObject();
+            textures.addProperty("layer0", Testmod.MOD_ID + ":item/synthetic_item_" + (i % itemTextures));
+            model.add("textures", textures);
+            builder.addData(assets + "models/item/synthetic_item_" + i + ".json", json(model));
+
+            JsonObject itemModel = new JsonObject();
+            itemModel.addProperty("type", "minecraft:model");
+            itemModel.addProperty("model", Testmod.MOD_ID + ":item/synthetic_item_" + i);
+            JsonObject item = new JsonObject();
+            item.add("model", itemModel);
+            builder.addData(assets + "items/synthetic_item_" + i + ".json", json(item));
+        }
+    }
+
+    // Stacked slabs, every other one turned a little so they end up in two bones instead of sharing one
+    private static JsonObject blockModel(int model) {
+        JsonObject textures = new JsonObject();
+        String texture = Testmod.MOD_ID + ":block/synthetic_" + model;
+        textures.addProperty("0", texture);
+        textures.addProperty("particle", texture);
+
+        JsonArray elements = new JsonArray();
+        for (int i = 0; i < ELEMENTS; i++) {
+            float bottom = 16f * i / ELEMENTS;
+            float top = 16f * (i + 1) / ELEMENTS;
+
+            JsonObject element = new JsonObject();
+            element.add("from", vector(0, bottom, 0));
+            element.add("to", vector(16, top, 16));
+            if (i % 2 == 1) {
+                JsonObject rotation = new JsonObject();
+                rotation.addProperty("angle", 22.5);
+                rotation.addProperty("axis", "y");
+                rotation.add("origin", vector(8, 8, 8));
+                element.add("rotation", rotation);
+            }
+
+            JsonObject faces = new JsonObject();
+            for (String direction : new String[]{"north", "east", "south", "west", "up", "down"}) {
+                JsonObject face = new JsonObject();
+                face.addProperty("texture", "#0");
+                JsonArray uv = new JsonArray();
+                uv.add(0);
+                uv.add(0);
+                uv.add(16);
+                uv.add(16);
+                face.add("uv", uv);
+                faces.add(direction, face);
+            }
+            element.add("faces", faces);
+            elements.add(element);
+        }
+
+        JsonObject object = new JsonObject();
+        object.addProperty("parent", "minecraft:block/block");
+        object.add("textures", textures);
+        object.add("elements", elements);
+        return object;
+    }
+
+    private static JsonArray vector(float x, float y, float z) {
+        JsonArray array = new JsonArray();
+        array.add(x);
+        array.add(y);
+        array.add(z);
+        return array;
+    }
+
+    private static byte[] json(JsonObject object) {
+        return object.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Noise, so the images don't compress down to nothing
+    private static byte[] texture(int seed) {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(TEXTURE_SIZE, TEXTURE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        int base = random.nextInt(0xFFFFFF);
+        for (int x = 0; x < TEXTURE_SIZE; x++) {
+            for (int y = 0; y < TEXTURE_SIZE; y++) {
+                image.setRGB(x, y, 0xFF000000 | (base ^ random.nextInt(0x202020)));
+            }
+        }
+
+        try (ByteArrayOutputStream output = new ByteArrayOutputStream()) {
+            ImageIO.write(image, "png", output);
+            return output.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}